@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.maxprograms.mvdserver.FileHandler;
+import com.maxprograms.mvdserver.MVDServer;
+import com.maxprograms.mvdserver.RedirectHandler;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean cache;
+
+    @Param({ "true", "false" })
+    public boolean index;
+
+    private Path webDir;
+    private FileHandler fileHandler;
+    private RedirectHandler redirectHandler;
+
+    private StubHttpExchange small;
+    private StubHttpExchange large;
+    private StubHttpExchange notModified;
+    private StubHttpExchange missing;
+    private StubHttpExchange permanentRedirect;
+    private StubHttpExchange secureRedirect;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        webDir = Files.createTempDirectory("mvdbench");
+        StringBuilder html = new StringBuilder();
+        while (html.length() < 2048) {
+            html.append("<p>MVDServer benchmark page</p>\n");
+        }
+        Files.writeString(webDir.resolve("small.html"), html.toString(), StandardCharsets.UTF_8);
+        byte[] data = new byte[4 * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        Files.write(webDir.resolve("large.zip"), data);
+        JSONObject redirects = new JSONObject();
+        redirects.put("/old.html", "/small.html");
+        Files.writeString(webDir.resolve("redirects.json"), redirects.toString(), StandardCharsets.UTF_8);
+
+        JSONObject config = new JSONObject();
+        config.put("hostName", "localhost");
+        config.put("httpPort", 0);
+        config.put("webDir", webDir.toString());
+        config.put("cache", new JSONObject().put("enabled", cache));
+        config.put("index", new JSONObject().put("enabled", index));
+        File configFile = webDir.resolve("config.json").toFile();
+        Files.writeString(configFile.toPath(), config.toString(), StandardCharsets.UTF_8);
+
+        MVDServer server = new MVDServer(new String[] { "-config", configFile.getAbsolutePath() });
+        fileHandler = new FileHandler(server);
+        redirectHandler = new RedirectHandler(server);
+
+        small = new StubHttpExchange("GET", "/small.html");
+        large = new StubHttpExchange("GET", "/large.zip");
+        missing = new StubHttpExchange("GET", "/wp-login.php");
+        permanentRedirect = new StubHttpExchange("GET", "/old.html");
+        secureRedirect = new StubHttpExchange("GET", "/small.html?lang=en");
+
+        fileHandler.handle(small);
+        String etag = small.getResponseHeaders().getFirst("ETag");
+        notModified = new StubHttpExchange("GET", "/small.html");
+        notModified.getRequestHeaders().add("If-None-Match", etag);
+        fileHandler.handle(notModified.reset());
+        if (notModified.getResponseCode() != 304) {
+            throw new IOException("Expected 304, got " + notModified.getResponseCode());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(webDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public long smallFile() {
+        fileHandler.handle(small.reset());
+        return small.getBytes();
+    }
+
+    @Benchmark
+    public long largeFile() {
+        fileHandler.handle(large.reset());
+        return large.getBytes();
+    }
+
+    @Benchmark
+    public int revalidate() {
+        fileHandler.handle(notModified.reset());
+        return notModified.getResponseCode();
+    }
+
+    @Benchmark
+    public int notFound() {
+        fileHandler.handle(missing.reset());
+        return missing.getResponseCode();
+    }
+
+    @Benchmark
+    public int permanentRedirect() {
+        fileHandler.handle(permanentRedirect.reset());
+        return permanentRedirect.getResponseCode();
+    }
+
+    @Benchmark
+    public int httpsRedirect() throws IOException {
+        redirectHandler.handle(secureRedirect.reset());
+        return secureRedirect.getResponseCode();
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.maxprograms.mvdserver.FileTransfer;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    @Param({ "4194304", "268435456" })
+    public long size;
+
+    private File file;
+    private FileTransfer chunked;
+    private FileTransfer mapped;
+
+    private static class NullOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("transfer", ".bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] block = new byte[1024 * 1024];
+            new Random(42).nextBytes(block);
+            for (long written = 0; written < size; written += block.length) {
+                raf.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        // the threshold selects the strategy, -1 never maps the file and 0 always does
+        chunked = new FileTransfer(new JSONObject().put("largeFileThreshold", -1));
+        mapped = new FileTransfer(new JSONObject().put("largeFileThreshold", 0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    // the 2 KB stream loop FileHandler used before FileTransfer
+    @Benchmark
+    public long streamCopy() throws IOException {
+        NullOutputStream os = new NullOutputStream();
+        try (FileInputStream stream = new FileInputStream(file)) {
+            byte[] array = new byte[2048];
+            int read;
+            while ((read = stream.read(array)) != -1) {
+                os.write(array, 0, read);
+            }
+        }
+        return os.count;
+    }
+
+    @Benchmark
+    public long chunkedChannel() throws IOException {
+        NullOutputStream os = new NullOutputStream();
+        chunked.send(file.toPath(), 0, file.length(), os);
+        return os.count;
+    }
+
+    @Benchmark
+    public long mappedChannel() throws IOException {
+        NullOutputStream os = new NullOutputStream();
+        mapped.send(file.toPath(), 0, file.length(), os);
+        return os.count;
+    }
+}
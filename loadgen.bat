@@ -0,0 +1,3 @@
+@echo off
+pushd "%~dp0" 
+bin\java.exe --module-path lib -m mvdserver/com.maxprograms.mvdserver.LoadGenerator %* 
\ No newline at end of file
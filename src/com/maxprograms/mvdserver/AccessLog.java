@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONObject;
+
+public class AccessLog implements Runnable {
+
+    private static Logger logger = System.getLogger(AccessLog.class.getName());
+
+    public static final String COMBINED = "combined";
+    public static final String JSON = "json";
+
+    private static final DateTimeFormatter CLF_DATE = DateTimeFormatter
+            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+
+    private File file;
+    private String format;
+    private long flushInterval;
+    private long maxSize;
+    private int maxFiles;
+
+    private AtomicReferenceArray<AccessRecord> ring;
+    private int mask;
+    private AtomicLong tail;
+    private volatile long head;
+    private LongAdder dropped;
+    private LongAdder written;
+
+    private BufferedWriter writer;
+    private long size;
+    private Thread thread;
+    private volatile boolean running;
+
+    public AccessLog(JSONObject config) throws IOException {
+        file = new File(config.optString("file", "logs/access.log"));
+        format = config.optString("format", COMBINED);
+        if (!COMBINED.equals(format) && !JSON.equals(format)) {
+            throw new IOException("Unknown access log format: " + format);
+        }
+        flushInterval = config.optLong("flushInterval", 1000);
+        maxSize = config.optLong("maxSize", 100l * 1024 * 1024);
+        maxFiles = config.optInt("maxFiles", 10);
+        int capacity = Integer.highestOneBit(Math.max(2, config.optInt("bufferSize", 8192) - 1)) << 1;
+        ring = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+        tail = new AtomicLong();
+        dropped = new LongAdder();
+        written = new LongAdder();
+        open();
+        running = true;
+        thread = new Thread(this, "access-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void log(AccessRecord accessRecord) {
+        while (true) {
+            long sequence = tail.get();
+            if (sequence - head > mask) {
+                dropped.increment();
+                return;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                ring.set((int) sequence & mask, accessRecord);
+                return;
+            }
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            LockSupport.parkNanos(flushInterval * 1000000);
+            try {
+                drain();
+            } catch (IOException e) {
+                logger.log(Level.ERROR, "Error writing access log", e);
+            }
+        }
+    }
+
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(flushInterval + 1000);
+            synchronized (this) {
+                drain();
+                writer.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.log(Level.ERROR, "Error closing access log", e);
+        }
+        if (getDropped() > 0) {
+            logger.log(Level.WARNING, () -> getDropped() + " access log records dropped");
+        }
+    }
+
+    private synchronized void drain() throws IOException {
+        StringBuilder builder = new StringBuilder(256);
+        long position = head;
+        long end = tail.get();
+        while (position < end) {
+            int slot = (int) position & mask;
+            AccessRecord accessRecord = ring.get(slot);
+            if (accessRecord == null) {
+                // claimed by a request thread that has not published it yet
+                break;
+            }
+            ring.set(slot, null);
+            position++;
+            head = position;
+            builder.setLength(0);
+            format(accessRecord, builder);
+            builder.append('\n');
+            if (size + builder.length() > maxSize) {
+                rotate();
+            }
+            writer.write(builder.toString());
+            size += builder.length();
+            written.increment();
+        }
+        writer.flush();
+    }
+
+    private void format(AccessRecord accessRecord, StringBuilder builder) {
+        if (JSON.equals(format)) {
+            JSONObject json = new JSONObject();
+            json.put("time", Instant.ofEpochMilli(accessRecord.time()).toString());
+            json.put("remote", accessRecord.remote());
+            json.put("host", accessRecord.host() == null ? "" : accessRecord.host());
+            json.put("method", accessRecord.method());
+            json.put("uri", accessRecord.uri());
+            json.put("protocol", accessRecord.protocol());
+            json.put("status", accessRecord.status());
+            json.put("bytes", accessRecord.bytes());
+            json.put("referer", accessRecord.referer() == null ? "" : accessRecord.referer());
+            json.put("userAgent", accessRecord.userAgent() == null ? "" : accessRecord.userAgent());
+            json.put("micros", accessRecord.micros());
+            builder.append(json.toString());
+            return;
+        }
+        builder.append(accessRecord.remote()).append(" - - [");
+        CLF_DATE.formatTo(Instant.ofEpochMilli(accessRecord.time()), builder);
+        builder.append("] \"").append(accessRecord.method()).append(' ');
+        quote(accessRecord.uri(), builder);
+        builder.append(' ').append(accessRecord.protocol()).append("\" ").append(accessRecord.status()).append(' ');
+        if (accessRecord.bytes() > 0) {
+            builder.append(accessRecord.bytes());
+        } else {
+            builder.append('-');
+        }
+        builder.append(" \"");
+        quote(accessRecord.referer() == null ? "-" : accessRecord.referer(), builder);
+        builder.append("\" \"");
+        quote(accessRecord.userAgent() == null ? "-" : accessRecord.userAgent(), builder);
+        builder.append('"');
+    }
+
+    private static void quote(String value, StringBuilder builder) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7f) {
+                builder.append(String.format("\\x%02x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            Files.createDirectories(parent.toPath());
+        }
+        size = file.length();
+        writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 65536);
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File older = new File(file.getPath() + '.' + i);
+            if (older.exists()) {
+                Files.move(older.toPath(), new File(file.getPath() + '.' + (i + 1)).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file.toPath(), new File(file.getPath() + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file.toPath());
+        }
+        open();
+    }
+}
@@ -0,0 +1,16 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+public record AccessRecord(long time, String remote, String host, String method, String uri, String protocol,
+        int status, long bytes, String referer, String userAgent, long micros) {
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class AssetFingerprints {
+
+    private static final String[] DEFAULT_EXTENSIONS = { ".js", ".mjs", ".css", ".png", ".jpg", ".jpeg", ".gif",
+            ".svg", ".webp", ".ico", ".woff", ".woff2" };
+
+    private static final Pattern FINGERPRINTED = Pattern.compile("(.*/[^/]+)\\.([0-9a-f]{8})(\\.[0-9A-Za-z]+)");
+    private static final Pattern REFERENCE = Pattern
+            .compile("(?i)(\\s(?:src|href)\\s*=\\s*)([\"'])([^\"'<>]+)\\2");
+
+    public interface Resolver {
+        Resource find(String url) throws IOException;
+    }
+
+    private Set<String> extensions;
+    private String immutable;
+    private boolean rewriteHtml;
+    private long maxHtmlSize;
+    private FileCache pages;
+    private AtomicLong generation;
+
+    public AssetFingerprints(JSONObject config) {
+        extensions = new HashSet<>();
+        JSONArray array = config.optJSONArray("extensions");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                extensions.add(array.getString(i).toLowerCase());
+            }
+        } else {
+            extensions.addAll(Set.of(DEFAULT_EXTENSIONS));
+        }
+        immutable = "public, max-age=" + config.optLong("maxAge", 31536000) + ", immutable";
+        rewriteHtml = config.optBoolean("rewriteHtml", true);
+        maxHtmlSize = config.optLong("maxHtmlSize", 1024l * 1024);
+        JSONObject cacheConfig = new JSONObject();
+        cacheConfig.put("maxSize", config.optLong("cacheSize", 8l * 1024 * 1024));
+        cacheConfig.put("maxFileSize", maxHtmlSize);
+        pages = new FileCache(cacheConfig);
+        generation = new AtomicLong();
+    }
+
+    public FileCache getCache() {
+        return pages;
+    }
+
+    public void changed(Path path) {
+        // any asset may be referenced from any page
+        generation.incrementAndGet();
+        pages.clear();
+    }
+
+    public String original(String url) {
+        Matcher matcher = FINGERPRINTED.matcher(url);
+        if (!matcher.matches() || !extensions.contains(matcher.group(3).toLowerCase())) {
+            return null;
+        }
+        return matcher.group(1) + matcher.group(3);
+    }
+
+    public Resource resolve(String url, Resource resource) {
+        return new Resource(resource.path(), resource.length(), resource.lastModified(), resource.etag(),
+                resource.contentType(), cacheControl(url, resource.etag()));
+    }
+
+    public String cacheControl(String url, String etag) {
+        Matcher matcher = FINGERPRINTED.matcher(url);
+        // an outdated fingerprint gets the current file, but it must not be kept
+        return matcher.matches() && matcher.group(2).equals(fingerprint(etag)) ? immutable : "no-cache";
+    }
+
+    // only pages with an extension mapped to text/html in ContentTypes.json
+    public boolean isRewritable(Resource resource) {
+        return rewriteHtml && resource.length() <= maxHtmlSize && resource.contentType().startsWith("text/html");
+    }
+
+    public CachedFile rewrite(String url, Resource page, Resolver resolver) throws IOException {
+        CachedFile cached = pages.get(url);
+        if (cached != null && cached.path().equals(page.path()) && cached.lastModified() == page.lastModified()) {
+            return cached;
+        }
+        long current = generation.get();
+        String html = Files.readString(page.path(), StandardCharsets.UTF_8);
+        URI base = URI.create(url);
+        Matcher matcher = REFERENCE.matcher(html);
+        StringBuilder builder = new StringBuilder(html.length() + 256);
+        while (matcher.find()) {
+            String reference = fingerprinted(base, matcher.group(3), resolver);
+            String replacement = matcher.group();
+            if (reference != null) {
+                replacement = matcher.group(1) + matcher.group(2) + reference + matcher.group(2);
+            }
+            matcher.appendReplacement(builder, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(builder);
+        byte[] body = builder.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        String etag = '"' + Integer.toHexString((int) crc.getValue()) + '-' + Long.toHexString(body.length) + '"';
+        CachedFile result = new CachedFile(page.path(), body, etag, page.lastModified(), page.contentType(),
+                page.cacheControl());
+        if (generation.get() == current) {
+            pages.put(url, result);
+        }
+        return result;
+    }
+
+    private String fingerprinted(URI base, String reference, Resolver resolver) throws IOException {
+        if (reference.startsWith("//") || reference.startsWith("#") || reference.indexOf(':') != -1) {
+            return null;
+        }
+        int end = reference.length();
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        String file = reference.substring(0, end);
+        int slash = file.lastIndexOf('/');
+        int dot = file.lastIndexOf('.');
+        if (dot <= slash + 1 || !extensions.contains(file.substring(dot).toLowerCase())) {
+            return null;
+        }
+        String path;
+        try {
+            path = base.resolve(file).normalize().getPath();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (path == null || !path.startsWith("/") || path.startsWith("/..")) {
+            return null;
+        }
+        Resource resource = resolver.find(path);
+        String hash = resource != null ? fingerprint(resource.etag()) : null;
+        if (hash == null) {
+            return null;
+        }
+        return file.substring(0, dot) + '.' + hash + reference.substring(dot);
+    }
+
+    // the fingerprint is the content checksum in the strong ETag
+    private static String fingerprint(String etag) {
+        int dash = etag.indexOf('-');
+        if (!etag.startsWith("\"") || dash == -1) {
+            return null;
+        }
+        String hash = etag.substring(1, dash);
+        return "00000000".substring(hash.length()) + hash;
+    }
+}
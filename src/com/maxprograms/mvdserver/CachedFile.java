@@ -0,0 +1,22 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.nio.file.Path;
+
+public record CachedFile(Path path, byte[] body, String etag, long lastModified, String contentType,
+        String cacheControl) {
+
+    public long size() {
+        return body.length;
+    }
+}
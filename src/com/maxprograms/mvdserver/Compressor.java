@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class Compressor {
+
+    public static final String BROTLI = "br";
+    public static final String GZIP = "gzip";
+
+    private static final String[] DEFAULT_TYPES = { "text/", "application/javascript", "application/x-javascript",
+            "application/json", "application/xml", "application/xhtml+xml", "image/svg+xml" };
+
+    private long minSize;
+    private long maxSize;
+    private List<String> mimeTypes;
+    private FileCache variants;
+
+    public record Variant(String encoding, String etag, Path path, long length, byte[] body) {
+    }
+
+    public interface Siblings {
+        Resource find(String suffix) throws IOException;
+    }
+
+    public Compressor(JSONObject config) {
+        minSize = config.optLong("minSize", 1024);
+        maxSize = config.optLong("maxSize", 8l * 1024 * 1024);
+        mimeTypes = new ArrayList<>();
+        JSONArray array = config.optJSONArray("mimeTypes");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                mimeTypes.add(array.getString(i));
+            }
+        } else {
+            mimeTypes.addAll(List.of(DEFAULT_TYPES));
+        }
+        JSONObject cacheConfig = new JSONObject();
+        cacheConfig.put("maxSize", config.optLong("cacheSize", 32l * 1024 * 1024));
+        cacheConfig.put("maxFileSize", maxSize);
+        variants = new FileCache(cacheConfig);
+    }
+
+    public FileCache getCache() {
+        return variants;
+    }
+
+    public boolean isCompressible(String contentType) {
+        for (String type : mimeTypes) {
+            if (contentType.startsWith(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static List<String> accepted(String acceptEncoding) {
+        List<String> result = new ArrayList<>();
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return result;
+        }
+        double brotli = -1;
+        double gzip = -1;
+        double any = -1;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case BROTLI -> brotli = q;
+                case GZIP, "x-gzip" -> gzip = q;
+                case "*" -> any = q;
+                default -> {
+                    // not supported
+                }
+            }
+        }
+        if (brotli == -1) {
+            brotli = any;
+        }
+        if (gzip == -1) {
+            gzip = any;
+        }
+        if (brotli > 0 && brotli >= gzip) {
+            result.add(BROTLI);
+        }
+        if (gzip > 0) {
+            result.add(GZIP);
+        }
+        if (brotli > 0 && brotli < gzip) {
+            result.add(BROTLI);
+        }
+        return result;
+    }
+
+    public static String variantTag(String etag, String encoding) {
+        if (etag.endsWith("\"")) {
+            return etag.substring(0, etag.length() - 1) + '-' + encoding + '"';
+        }
+        return etag + '-' + encoding;
+    }
+
+    // a gzip variant that is not cached yet is returned without a path; call compress() to build it
+    public Variant find(Path file, String etag, long length, long lastModified, List<String> encodings,
+            Siblings siblings) throws IOException {
+        for (String encoding : encodings) {
+            String key = file.toString() + '\n' + etag + '\n' + encoding;
+            CachedFile cached = variants.get(key);
+            if (cached != null) {
+                return new Variant(encoding, cached.etag(), cached.path(), cached.size(), cached.body());
+            }
+            Resource sibling = siblings.find(BROTLI.equals(encoding) ? ".br" : ".gz");
+            if (sibling != null && sibling.lastModified() >= lastModified) {
+                String tag = variantTag(etag, encoding);
+                Path path = sibling.path();
+                if (variants.accepts(sibling.length())) {
+                    byte[] body = Files.readAllBytes(path);
+                    variants.put(key, new CachedFile(path, body, tag, sibling.lastModified(), "", ""));
+                    return new Variant(encoding, tag, path, body.length, body);
+                }
+                return new Variant(encoding, tag, path, sibling.length(), null);
+            }
+            if (GZIP.equals(encoding) && length >= minSize && length <= maxSize) {
+                return new Variant(encoding, variantTag(etag, encoding), null, -1, null);
+            }
+        }
+        return null;
+    }
+
+    public Variant compress(Path file, String etag, byte[] identity) throws IOException {
+        byte[] body = gzip(identity != null ? identity : Files.readAllBytes(file));
+        String tag = variantTag(etag, GZIP);
+        variants.put(file.toString() + '\n' + etag + '\n' + GZIP, new CachedFile(file, body, tag, 0l, "", ""));
+        return new Variant(GZIP, tag, file, body.length, body);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 3 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes, 8192)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+}
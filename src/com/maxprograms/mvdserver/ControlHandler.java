@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.json.JSONObject;
+
+public class ControlHandler implements HttpHandler {
+
+    private static Logger logger = System.getLogger(ControlHandler.class.getName());
+
+    private MVDServer parent;
+    private String path;
+    private byte[] token;
+    private boolean loopbackOnly;
+
+    public ControlHandler(MVDServer parent, JSONObject config) {
+        this.parent = parent;
+        path = config.optString("path", "/control");
+        token = ("Bearer " + config.optString("token", "")).getBytes(StandardCharsets.UTF_8);
+        loopbackOnly = config.optBoolean("loopbackOnly", true);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!isAuthorized(exchange)) {
+            logger.log(Level.WARNING, () -> "Rejected control request from " + exchange.getRemoteAddress());
+            exchange.sendResponseHeaders(403, -1l);
+            exchange.close();
+            return;
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Allow", "POST");
+            exchange.sendResponseHeaders(405, -1l);
+            exchange.close();
+            return;
+        }
+        String command = exchange.getRequestURI().getPath().substring(path.length());
+        JSONObject result = new JSONObject();
+        switch (command) {
+            case "/stop":
+                logger.log(Level.INFO, () -> "Stop requested by " + exchange.getRemoteAddress());
+                result.put("status", "stopping");
+                result.put("inFlight", parent.getInFlight());
+                send(exchange, 202, result);
+                parent.shutdown();
+                break;
+            case "/reload":
+                try {
+                    parent.reload();
+                    result.put("status", "reloaded");
+                    send(exchange, 200, result);
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.ERROR, "Error reloading configuration", e);
+                    result.put("status", "error");
+                    result.put("reason", e.getMessage());
+                    send(exchange, 500, result);
+                }
+                break;
+            default:
+                exchange.sendResponseHeaders(404, -1l);
+                exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, JSONObject result) throws IOException {
+        byte[] body = result.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("content-type", "application/json");
+        exchange.getResponseHeaders().add("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    // with an empty token only local requests are accepted
+    private boolean isAuthorized(HttpExchange exchange) {
+        boolean loopback = exchange.getRemoteAddress().getAddress().isLoopbackAddress();
+        if (token.length == "Bearer ".length()) {
+            return loopback;
+        }
+        if (loopbackOnly && !loopback) {
+            return false;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null
+                && MessageDigest.isEqual(token, authorization.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+public class DirectoryWatcher implements Runnable {
+
+    private static Logger logger = System.getLogger(DirectoryWatcher.class.getName());
+
+    private Path root;
+    private WatchService service;
+    private Map<WatchKey, Path> keys;
+    private List<Consumer<Path>> listeners;
+    private Thread thread;
+
+    public DirectoryWatcher(File dir) throws IOException {
+        root = dir.toPath().toAbsolutePath().normalize();
+        service = FileSystems.getDefault().newWatchService();
+        keys = new ConcurrentHashMap<>();
+        listeners = new CopyOnWriteArrayList<>();
+        register(root);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public void addListener(Consumer<Path> listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "watcher-" + root.getFileName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public void close() throws IOException {
+        service.close();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = keys.get(key);
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        notifyListeners(root);
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                        try {
+                            register(child);
+                        } catch (IOException e) {
+                            logger.log(Level.WARNING, () -> "Unable to watch " + child.toString());
+                        }
+                    }
+                    notifyListeners(child);
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    private void notifyListeners(Path path) {
+        for (Consumer<Path> listener : listeners) {
+            try {
+                listener.accept(path);
+            } catch (RuntimeException e) {
+                logger.log(Level.ERROR, "Error processing change in " + path.toString(), e);
+            }
+        }
+    }
+
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
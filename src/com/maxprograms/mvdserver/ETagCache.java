@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+import org.json.JSONObject;
+
+public class ETagCache {
+
+    private static Logger logger = System.getLogger(ETagCache.class.getName());
+
+    private record Entry(long lastModified, long length, String etag) {
+    }
+
+    private long maxHashSize;
+    private ConcurrentHashMap<Path, Entry> entries;
+
+    public ETagCache(JSONObject config) {
+        maxHashSize = config.optLong("maxHashSize", 64l * 1024 * 1024);
+        entries = new ConcurrentHashMap<>();
+    }
+
+    public String get(Path path, long lastModified, long length) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.lastModified() == lastModified && entry.length() == length) {
+            return entry.etag();
+        }
+        if (length > maxHashSize) {
+            return weakTag(lastModified, length);
+        }
+        try {
+            String etag = '"' + Integer.toHexString(crc(path)) + '-' + Long.toHexString(length) + '"';
+            File file = path.toFile();
+            if (file.lastModified() == lastModified && file.length() == length) {
+                entries.put(path, new Entry(lastModified, length, etag));
+                return etag;
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, () -> "Unable to hash " + path.toString() + ": " + e.getMessage());
+        }
+        // the file changed while it was being read
+        return weakTag(lastModified, length);
+    }
+
+    public void invalidate(Path path) {
+        entries.keySet().removeIf(key -> key.startsWith(path));
+    }
+
+    private static String weakTag(long lastModified, long length) {
+        return "W/\"" + Long.toHexString(lastModified) + '-' + Long.toHexString(length) + '"';
+    }
+
+    private static int crc(Path path) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return (int) crc.getValue();
+    }
+}
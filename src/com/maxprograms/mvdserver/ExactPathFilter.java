@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+import java.util.Set;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+
+public class ExactPathFilter extends Filter {
+
+    private Set<String> paths;
+    private HttpContext site;
+
+    public ExactPathFilter(HttpContext site, String... paths) {
+        this.site = site;
+        this.paths = Set.of(paths);
+    }
+
+    // contexts match by prefix, so "/metrics" would also receive "/metrics.html"
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (paths.contains(exchange.getRequestURI().getPath())) {
+            chain.doFilter(exchange);
+            return;
+        }
+        new Chain(site.getFilters(), site.getHandler()).doFilter(exchange);
+    }
+
+    @Override
+    public String description() {
+        return "Passes requests for other paths to the site";
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+public class FileCache {
+
+    public static final long DEFAULT_MAX_SIZE = 64l * 1024 * 1024;
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024l * 1024;
+
+    private long maxSize;
+    private long maxFileSize;
+    private long size;
+    private LinkedHashMap<String, CachedFile> entries;
+
+    private LongAdder hits;
+    private LongAdder misses;
+    private LongAdder evictions;
+
+    public FileCache(JSONObject config) {
+        maxSize = config.optLong("maxSize", DEFAULT_MAX_SIZE);
+        maxFileSize = Math.min(config.optLong("maxFileSize", DEFAULT_MAX_FILE_SIZE), maxSize);
+        entries = new LinkedHashMap<>(256, 0.75f, true);
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+    }
+
+    public boolean accepts(long length) {
+        return length <= maxFileSize;
+    }
+
+    public CachedFile get(String key) {
+        CachedFile file;
+        synchronized (this) {
+            file = entries.get(key);
+        }
+        if (file != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return file;
+    }
+
+    public synchronized void put(String key, CachedFile file) {
+        if (!accepts(file.size())) {
+            return;
+        }
+        CachedFile old = entries.put(key, file);
+        if (old != null) {
+            size -= old.size();
+        }
+        size += file.size();
+        Iterator<CachedFile> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            CachedFile eldest = it.next();
+            it.remove();
+            size -= eldest.size();
+            evictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(Path path) {
+        Iterator<Entry<String, CachedFile>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            CachedFile file = it.next().getValue();
+            if (file.path().startsWith(path)) {
+                it.remove();
+                size -= file.size();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "entries: " + getCount() + ", bytes: " + getSize() + ", hits: " + getHits() + ", misses: "
+                + getMisses() + ", evictions: " + getEvictions();
+    }
+}
@@ -13,7 +13,6 @@ package com.maxprograms.mvdserver;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -21,28 +20,205 @@ import java.io.OutputStream;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class FileHandler implements HttpHandler {
 
     private static Logger logger = System.getLogger(FileHandler.class.getName());
 
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final String MULTIPART_BOUNDARY = "MVDSERVER_" + Long.toHexString(new SecureRandom().nextLong());
+    private static final byte[] MULTIPART_END = ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private interface BodyWriter {
+        void write(OutputStream os, long position, long count) throws IOException;
+    }
+
     private JSONObject contentTypes;
     private JSONObject cacheTimes;
-    private JSONObject permanentRedirects;
+    private RedirectEngine redirects;
+    private HeaderTemplate responseHeaders;
+    private ETagCache etags;
+    private AssetFingerprints fingerprints;
     private MVDServer parent;
+    private JSONObject site;
+    private File webDir;
+    private FileCache cache;
+    private FileTransfer transfer;
+    private Compressor compressor;
+    private ResourceIndex index;
+    private NegativeCache missing;
+    private RejectPatterns rejectPatterns;
+    private Set<String> unknownExtensions;
+    private Level missingLevel;
+    private Level redirectLevel;
+    private DirectoryWatcher watcher;
+    private SiteBundle bundle;
+    private HotSet hotSet;
 
     public FileHandler(MVDServer parent) throws IOException {
+        this(parent, new JSONObject());
+    }
+
+    // site holds the settings of a virtual host, overriding the server sections
+    public FileHandler(MVDServer parent, JSONObject site) throws IOException {
         this.parent = parent;
+        this.site = site;
+        if (site.has("headers")) {
+            responseHeaders = new HeaderTemplate(site.getJSONObject("headers"));
+        } else {
+            responseHeaders = parent.getResponseHeaders();
+        }
         loadContentTypes();
         loadCacheTimes();
-        loadRedirects();
+        transfer = new FileTransfer(getConfig("transfer"));
+        JSONObject bundleConfig = getConfig("bundle");
+        if (bundleConfig.optBoolean("enabled", false)) {
+            bundle = new SiteBundle(new File(bundleConfig.getString("file")).toPath(), bundleConfig);
+            redirects = new RedirectEngine();
+            loadBundleRedirects(bundle.getFile());
+            bundle.addListener(this::loadBundleRedirects);
+        } else {
+            redirects = new RedirectEngine(getWebDir());
+            getWatcher().addListener(redirects::changed);
+            etags = new ETagCache(getConfig("etag"));
+            getWatcher().addListener(etags::invalidate);
+        }
+        missingLevel = parent.hasAccessLog() ? Level.DEBUG : Level.WARNING;
+        redirectLevel = parent.hasAccessLog() ? Level.DEBUG : Level.INFO;
+        unknownExtensions = ConcurrentHashMap.newKeySet();
+        JSONObject indexConfig = getConfig("index");
+        if (bundle == null && indexConfig.optBoolean("enabled", false)) {
+            index = new ResourceIndex(getWebDir(), indexConfig, this::describe);
+            getWatcher().addListener(index::changed);
+        }
+        JSONObject cacheConfig = getConfig("cache");
+        if (cacheConfig.optBoolean("enabled", false)) {
+            cache = new FileCache(cacheConfig);
+            addListener(cache::invalidate);
+        }
+        JSONObject compressionConfig = getConfig("compression");
+        if (compressionConfig.optBoolean("enabled", false)) {
+            compressor = new Compressor(compressionConfig);
+            addListener(compressor.getCache()::invalidate);
+        }
+        JSONObject fingerprintConfig = getConfig("fingerprints");
+        if (fingerprintConfig.optBoolean("enabled", false)) {
+            fingerprints = new AssetFingerprints(fingerprintConfig);
+            addListener(fingerprints::changed);
+            if (index != null) {
+                index.addListener(fingerprints::changed);
+            }
+        }
+        JSONObject negativeConfig = getConfig("negativeCache");
+        if (negativeConfig.optBoolean("enabled", false)) {
+            missing = new NegativeCache(negativeConfig);
+            addListener(missing::invalidate);
+            if (index != null) {
+                index.addListener(missing::invalidate);
+            }
+        }
+        JSONArray patterns = negativeConfig.optJSONArray("rejectPatterns");
+        if (patterns != null && !patterns.isEmpty()) {
+            rejectPatterns = new RejectPatterns(patterns);
+        }
+        JSONObject warmupConfig = getConfig("warmup");
+        if (warmupConfig.optBoolean("enabled", false)) {
+            hotSet = new HotSet(warmupConfig.optInt("maxEntries", 1000));
+        }
+        if (watcher != null) {
+            watcher.start();
+        }
+    }
+
+    private JSONObject getConfig(String section) {
+        JSONObject result = site.optJSONObject(section);
+        return result != null ? result : parent.getConfig(section);
+    }
+
+    private File getWebDir() throws IOException {
+        if (webDir == null) {
+            if (site.has("webDir")) {
+                File dir = new File(site.getString("webDir"));
+                if (!dir.exists()) {
+                    Files.createDirectories(dir.toPath());
+                }
+                webDir = dir;
+            } else {
+                webDir = parent.getWebDir();
+            }
+        }
+        return webDir;
+    }
+
+    private void addListener(Consumer<Path> listener) throws IOException {
+        if (bundle != null) {
+            bundle.addListener(listener);
+        } else {
+            getWatcher().addListener(listener);
+        }
+    }
+
+    private void loadBundleRedirects(Path file) {
+        SiteBundle.Entry entry = bundle.get("/redirects.json");
+        if (entry == null) {
+            redirects.clear();
+            return;
+        }
+        try {
+            redirects.update(file.toString() + "!/redirects.json",
+                    new String(SiteBundle.inflate(entry), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.log(Level.ERROR, "Error loading redirects from " + file.toString() + ": " + e.getMessage());
+        }
+    }
+
+    // stops the background threads of a handler replaced by a configuration reload
+    public void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error closing directory watcher: " + e.getMessage());
+            }
+        }
+        if (index != null) {
+            index.close();
+        }
+        if (bundle != null) {
+            bundle.close();
+        }
+    }
+
+    private DirectoryWatcher getWatcher() throws IOException {
+        if (watcher == null) {
+            watcher = new DirectoryWatcher(getWebDir());
+        }
+        return watcher;
     }
 
     @Override
@@ -54,8 +230,14 @@ public class FileHandler implements HttpHandler {
             if (url.isEmpty() || "/".equals(url)) {
                 url = "/index.html";
             }
-            if (url.startsWith("/stop?key=")) {
-                parent.stopServer(url.substring("/stop?key=".length()).trim());
+            if (url.startsWith("/stop?key=") && parent.isStopWordEnabled()) {
+                if (parent.isStopWord(url.substring("/stop?key=".length()).trim())) {
+                    exchange.sendResponseHeaders(202, -1l);
+                    exchange.close();
+                    parent.shutdown();
+                } else {
+                    exchange.sendResponseHeaders(403, -1l);
+                }
                 return;
             }
             if ("/redirects.json".equals(url)) {
@@ -67,85 +249,490 @@ public class FileHandler implements HttpHandler {
                 url = url.substring(0, url.indexOf('?'));
             }
 
-            File resource = new File(parent.getWebDir(), url);
-            if (resource.isDirectory()) {
-                resource = new File(resource, "index.html");
+            if (cache != null && bundle == null) {
+                CachedFile cached = cache.get(url);
+                if (cached != null) {
+                    hit(url);
+                    serve(exchange, url, cached.path(), cached.etag(), cached.lastModified(), cached.contentType(),
+                            cached.cacheControl(), cached.size(), cached.body());
+                    return;
+                }
+            }
+            if (missing != null && missing.contains(url)) {
+                exchange.sendResponseHeaders(404, -1l);
+                return;
+            }
+            if (rejectPatterns != null && rejectPatterns.matches(url)) {
+                // rejected paths skip the disk, but legacy URLs in redirects.json are still redirected
+                notFound(exchange, uri, url, true);
+                return;
+            }
+            if (bundle != null) {
+                serveBundle(exchange, uri, url);
+                return;
             }
 
-            if (resource.exists()) {
-                String etag = "W/" + resource.lastModified() + "L" + resource.length();
-                String contentType = "text/html";
-                String cacheTime = "";
-                String name = resource.getName().toLowerCase();
-                if (name.indexOf('.') != -1) {
-                    String extension = name.substring(name.lastIndexOf('.'));
-                    if (contentTypes.has(extension)) {
-                        contentType = contentTypes.getString(extension);
-                    } else {
-                        logger.log(Level.INFO, () -> "Unknown extension: " + extension);
-                    }
-                    if (cacheTimes.has(extension)) {
-                        cacheTime = "public, max-age=" + cacheTimes.getInt(extension);
+            Resource resource = lookup(url);
+            String source = url;
+            if (resource == null && fingerprints != null) {
+                String original = fingerprints.original(url);
+                if (original != null && (resource = lookup(original)) != null) {
+                    resource = fingerprints.resolve(url, resource);
+                    source = original;
+                }
+            }
+            if (resource != null) {
+                hit(url);
+                if (fingerprints != null && fingerprints.isRewritable(resource)) {
+                    CachedFile page = fingerprints.rewrite(url, resource, this::lookup);
+                    serve(exchange, null, page.path(), page.etag(), page.lastModified(), page.contentType(),
+                            page.cacheControl(), page.size(), page.body());
+                    return;
+                }
+                Path path = resource.path();
+                long length = resource.length();
+                byte[] body = null;
+                if (cache != null && cache.accepts(length)) {
+                    body = Files.readAllBytes(path);
+                    if (body.length == length && resource.lastModified() == path.toFile().lastModified()) {
+                        cache.put(url, new CachedFile(path, body, resource.etag(), resource.lastModified(),
+                                resource.contentType(), resource.cacheControl()));
                     }
+                    length = body.length;
                 }
+                serve(exchange, source, path, resource.etag(), resource.lastModified(), resource.contentType(),
+                        resource.cacheControl(), length, body);
+            } else {
+                notFound(exchange, uri, url);
+            }
+        } catch (IOException ioe) {
+            logger.log(Level.ERROR,
+                    () -> "Received `" + ioe.getMessage() + "` processing " + exchange.getRequestURI().toString());
+        }
+    }
 
-                Headers headers = exchange.getRequestHeaders();
+    private void notFound(HttpExchange exchange, URI uri, String url) throws IOException {
+        notFound(exchange, uri, url, false);
+    }
 
-                String pragma = headers.getFirst("Pragma");
-                String cacheControl = headers.getFirst("Cache-Control");
-                String etagMatch = headers.getFirst("If-None-Match");
+    private void notFound(HttpExchange exchange, URI uri, String url, boolean rejected) throws IOException {
+        RedirectEngine.Redirect redirect = redirects.find(url);
+        if (redirect != null) {
+            responseHeaders.apply(exchange.getResponseHeaders());
+            exchange.getResponseHeaders().add("Location", redirect.location());
+            exchange.sendResponseHeaders(redirect.status(), -1);
+            logger.log(redirectLevel, () -> "Redirected " + uri.toString() + " to " + redirect.location());
+        } else if (rejected) {
+            rejectPatterns.countRejected();
+            exchange.sendResponseHeaders(404, -1l);
+        } else {
+            if (missing != null) {
+                missing.add(url);
+            }
+            logger.log(missingLevel, () -> "Missing resource requested: " + uri.toString());
+            exchange.getResponseHeaders().add("Upgrade-Insecure-Requests", "1");
+            exchange.sendResponseHeaders(404, -1l);
+        }
+    }
 
-                if (!("no-cache".equalsIgnoreCase(pragma) || "no-cache".equalsIgnoreCase(cacheControl)
-                        || "max-age=0".equalsIgnoreCase(cacheControl) || !etag.equalsIgnoreCase(etagMatch))) {
-                    exchange.sendResponseHeaders(304, -1l);
+    private void serveBundle(HttpExchange exchange, URI uri, String url) throws IOException {
+        SiteBundle.Entry entry = bundle.get(url);
+        String source = url;
+        String cacheTime = null;
+        if (entry == null && fingerprints != null) {
+            String original = fingerprints.original(url);
+            if (original != null && (entry = bundle.get(original)) != null) {
+                cacheTime = fingerprints.cacheControl(url, entry.etag());
+                source = original;
+            }
+        }
+        if (entry == null) {
+            notFound(exchange, uri, url);
+            return;
+        }
+        hit(source);
+        String contentType = contentType(entry.name());
+        if (cacheTime == null) {
+            cacheTime = cacheTime(entry.name());
+        }
+        boolean compressible = compressor != null && compressor.isCompressible(contentType);
+        if (compressible || entry.deflated()) {
+            exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+            for (String encoding : Compressor.accepted(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+                BodyWriter writer = null;
+                long length = 0;
+                if (Compressor.GZIP.equals(encoding) && entry.deflated()) {
+                    // a deflated entry becomes a gzip stream by adding header and trailer
+                    writer = gzipWriter(entry);
+                    length = entry.gzipLength();
+                } else if (compressible) {
+                    SiteBundle.Entry sibling = bundle
+                            .get(source + (Compressor.BROTLI.equals(encoding) ? ".br" : ".gz"));
+                    if (sibling != null && !sibling.deflated()) {
+                        writer = writer(sibling.data());
+                        length = sibling.size();
+                    }
+                }
+                if (writer != null) {
+                    String tag = Compressor.variantTag(entry.etag(), encoding);
+                    if (isNotModified(exchange, tag, entry.lastModified())) {
+                        notModified(exchange, tag, cacheTime);
+                        return;
+                    }
+                    exchange.getResponseHeaders().add("Content-Encoding", encoding);
+                    send(exchange, tag, entry.lastModified(), contentType, cacheTime, length, writer);
                     return;
                 }
+            }
+        }
+        if (isNotModified(exchange, entry.etag(), entry.lastModified())) {
+            notModified(exchange, entry.etag(), cacheTime);
+            return;
+        }
+        BodyWriter writer;
+        if (entry.deflated()) {
+            writer = writer(null, inflate(source, entry));
+        } else {
+            writer = writer(entry.data());
+        }
+        send(exchange, entry.etag(), entry.lastModified(), contentType, cacheTime, entry.size(), writer);
+    }
+
+    private byte[] inflate(String url, SiteBundle.Entry entry) throws IOException {
+        if (cache == null || !cache.accepts(entry.size())) {
+            return SiteBundle.inflate(entry);
+        }
+        CachedFile cached = cache.get(url);
+        if (cached != null && cached.etag().equals(entry.etag())) {
+            return cached.body();
+        }
+        byte[] body = SiteBundle.inflate(entry);
+        cache.put(url, new CachedFile(bundle.getFile(), body, entry.etag(), entry.lastModified(), "", ""));
+        return body;
+    }
+
+    private BodyWriter writer(ByteBuffer data) {
+        return (os, position, count) -> transfer.send(data, position, count, os);
+    }
 
-                exchange.getResponseHeaders().add("ETag", etag);
-                exchange.getResponseHeaders().add("content-type", contentType);
-                exchange.getResponseHeaders().add("X-FRAME-OPTIONS", "sameorigin");
-                exchange.getResponseHeaders().add("X-XSS-Protection", "1; mode=block");
-                exchange.getResponseHeaders().add("X-Content-Type-Options", "nosniff");
-                exchange.getResponseHeaders().add("Strict-Transport-Security", "max-age=31536000; includeSubDomains");
-                exchange.getResponseHeaders().add("X-Permitted-Cross-Domain-Policies", "master-only");
-                exchange.getResponseHeaders().add("Content-Security-Policy", "report-uri https://maxprograms.com");
-                exchange.getResponseHeaders().add("Referrer-Policy", "no-referrer-when-downgrade");
-                exchange.getResponseHeaders().add("Permissions-Policy", "microphone=(), camera=()");
-                if (!cacheTime.isEmpty()) {
-                    exchange.getResponseHeaders().add("Cache-Control", cacheTime);
+    private BodyWriter gzipWriter(SiteBundle.Entry entry) {
+        byte[] header = SiteBundle.gzipHeader();
+        byte[] trailer = SiteBundle.gzipTrailer(entry);
+        long dataEnd = header.length + (long) entry.data().limit();
+        return (os, position, count) -> {
+            long end = position + count;
+            if (position < header.length) {
+                os.write(header, (int) position, (int) (Math.min(end, header.length) - position));
+            }
+            long from = Math.max(position, header.length);
+            long to = Math.min(end, dataEnd);
+            if (from < to) {
+                transfer.send(entry.data(), from - header.length, to - from, os);
+            }
+            from = Math.max(position, dataEnd);
+            if (from < end) {
+                os.write(trailer, (int) (from - dataEnd), (int) (end - from));
+            }
+        };
+    }
+
+    private void hit(String url) {
+        if (hotSet != null) {
+            hotSet.record(url);
+        }
+    }
+
+    // fills the caches for a URL without a request, returns the bytes kept in memory
+    public long warm(String url) throws IOException {
+        if (bundle != null) {
+            SiteBundle.Entry entry = bundle.get(url);
+            if (entry == null || !entry.deflated() || cache == null || !cache.accepts(entry.size())) {
+                return 0;
+            }
+            return inflate(url, entry).length;
+        }
+        Resource resource = lookup(url);
+        String source = url;
+        if (resource == null && fingerprints != null) {
+            String original = fingerprints.original(url);
+            if (original != null && (resource = lookup(original)) != null) {
+                resource = fingerprints.resolve(url, resource);
+                source = original;
+            }
+        }
+        if (resource == null) {
+            return 0;
+        }
+        if (fingerprints != null && fingerprints.isRewritable(resource)) {
+            return fingerprints.rewrite(url, resource, this::lookup).size();
+        }
+        long result = 0;
+        byte[] body = null;
+        if (cache != null && cache.accepts(resource.length())) {
+            body = Files.readAllBytes(resource.path());
+            if (body.length == resource.length()) {
+                cache.put(url, new CachedFile(resource.path(), body, resource.etag(), resource.lastModified(),
+                        resource.contentType(), resource.cacheControl()));
+                result += body.length;
+            }
+        }
+        String siblings = source;
+        if (compressor != null && compressor.isCompressible(resource.contentType())) {
+            for (String encoding : List.of(Compressor.BROTLI, Compressor.GZIP)) {
+                Compressor.Variant variant = compressor.find(resource.path(), resource.etag(), resource.length(),
+                        resource.lastModified(), List.of(encoding), suffix -> lookup(siblings + suffix));
+                if (variant != null && variant.path() == null) {
+                    variant = compressor.compress(resource.path(), resource.etag(), body);
                 }
+                if (variant != null && variant.body() != null) {
+                    result += variant.length();
+                }
+            }
+        }
+        return result;
+    }
 
-                exchange.sendResponseHeaders(200, resource.length());
+    private Resource lookup(String url) throws IOException {
+        Map<String, Resource> entries = index != null ? index.getEntries() : null;
+        if (entries != null) {
+            return entries.get(url);
+        }
+        File file = new File(getWebDir(), url);
+        if (file.isDirectory()) {
+            file = new File(file, "index.html");
+        }
+        return file.exists() ? describe(file) : null;
+    }
 
-                if ("GET".equals(exchange.getRequestMethod())) {
-                    try (FileInputStream stream = new FileInputStream(resource)) {
-                        try (OutputStream os = exchange.getResponseBody()) {
-                            byte[] array = new byte[2048];
-                            int read;
-                            while ((read = stream.read(array)) != -1) {
-                                os.write(array, 0, read);
-                            }
-                        }
+    private Resource describe(File file) {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        String etag = etags.get(path, lastModified, length);
+        String name = file.getName();
+        return new Resource(path, length, lastModified, etag, contentType(name), cacheTime(name));
+    }
+
+    private String contentType(String name) {
+        String extension = extension(name);
+        if (extension != null) {
+            if (contentTypes.has(extension)) {
+                return contentTypes.getString(extension);
+            }
+            if (unknownExtensions.add(extension)) {
+                logger.log(Level.INFO, () -> "Unknown extension: " + extension);
+            }
+        }
+        // unknown files must not be rewritten or compressed as pages
+        return "application/octet-stream";
+    }
+
+    private String cacheTime(String name) {
+        String extension = extension(name);
+        if (extension != null && cacheTimes.has(extension)) {
+            return "public, max-age=" + cacheTimes.getInt(extension);
+        }
+        return "";
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot == -1 || name.indexOf('/', dot) != -1) {
+            return null;
+        }
+        return name.substring(dot).toLowerCase();
+    }
+
+    private static boolean isNotModified(HttpExchange exchange, String etag, long lastModified) {
+        Headers headers = exchange.getRequestHeaders();
+        String etagMatch = headers.getFirst("If-None-Match");
+        if (etagMatch != null) {
+            return matches(etagMatch, etag);
+        }
+        String modifiedSince = headers.getFirst("If-Modified-Since");
+        if (modifiedSince != null && lastModified > 0) {
+            long since = parseDate(modifiedSince);
+            return since != -1 && lastModified / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    // weak comparison, as required for If-None-Match
+    private static boolean matches(String header, String etag) {
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String token : header.split(",")) {
+            String candidate = token.trim();
+            if ("*".equals(candidate)) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRangeValid(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            // strong comparison, weak tags never match
+            return !etag.startsWith("W/") && ifRange.equals(etag);
+        }
+        long date = parseDate(ifRange);
+        return date != -1 && date / 1000 == lastModified / 1000;
+    }
+
+    private static long parseDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private void addHeaders(HttpExchange exchange, String etag, long lastModified, String contentType,
+            String cacheTime) {
+        Headers headers = exchange.getResponseHeaders();
+        responseHeaders.apply(headers);
+        headers.add("ETag", etag);
+        if (lastModified > 0) {
+            headers.add("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(lastModified)));
+        }
+        headers.add("content-type", contentType);
+        if (!cacheTime.isEmpty()) {
+            headers.add("Cache-Control", cacheTime);
+        }
+    }
+
+    private void serve(HttpExchange exchange, String url, Path path, String etag, long lastModified,
+            String contentType, String cacheTime, long length, byte[] body) throws IOException {
+        if (compressor != null && compressor.isCompressible(contentType)) {
+            exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+            List<String> encodings = Compressor.accepted(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            if (!encodings.isEmpty()) {
+                // precompressed siblings only exist for files served as they are on disk
+                Compressor.Variant variant = compressor.find(path, etag, length, lastModified, encodings,
+                        url == null ? suffix -> null : suffix -> lookup(url + suffix));
+                if (variant != null) {
+                    if (isNotModified(exchange, variant.etag(), lastModified)) {
+                        notModified(exchange, variant.etag(), cacheTime);
+                        return;
                     }
+                    if (variant.path() == null) {
+                        // only compressed once the full response is needed
+                        variant = compressor.compress(path, etag, body);
+                    }
+                    exchange.getResponseHeaders().add("Content-Encoding", variant.encoding());
+                    send(exchange, variant.etag(), lastModified, contentType, cacheTime, variant.length(),
+                            writer(variant.path(), variant.body()));
+                    return;
                 }
-            } else {
-                if (permanentRedirects.has(url)) {
-                    String newLocation = permanentRedirects.getString(url);
-                    exchange.getResponseHeaders().add("Location", newLocation);
-                    exchange.sendResponseHeaders(301, -1);
-                    logger.log(Level.INFO, () -> "Redirected " + uri.toString() + " to " + newLocation);
-                } else {
-                    logger.log(Level.WARNING, () -> "Missing resource requested: " + uri.toString());
-                    exchange.getResponseHeaders().add("Upgrade-Insecure-Requests", "1");
-                    exchange.sendResponseHeaders(404, -1l);
+            }
+        }
+        if (isNotModified(exchange, etag, lastModified)) {
+            notModified(exchange, etag, cacheTime);
+            return;
+        }
+        send(exchange, etag, lastModified, contentType, cacheTime, length, writer(path, body));
+    }
+
+    private static void notModified(HttpExchange exchange, String etag, String cacheTime) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("ETag", etag);
+        if (!cacheTime.isEmpty()) {
+            headers.add("Cache-Control", cacheTime);
+        }
+        exchange.sendResponseHeaders(304, -1l);
+    }
+
+    private BodyWriter writer(Path path, byte[] body) {
+        if (body != null) {
+            return (os, position, count) -> os.write(body, (int) position, (int) count);
+        }
+        return (os, position, count) -> transfer.send(path, position, count, os);
+    }
+
+    private void send(HttpExchange exchange, String etag, long lastModified, String contentType, String cacheTime,
+            long length, BodyWriter writer) throws IOException {
+        addHeaders(exchange, etag, lastModified, contentType, cacheTime);
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.add("Accept-Ranges", "bytes");
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, length);
+            return;
+        }
+        List<ByteRange> ranges = null;
+        Headers headers = exchange.getRequestHeaders();
+        if (isRangeValid(headers.getFirst("If-Range"), etag, lastModified)) {
+            ranges = ByteRange.parse(headers.getFirst("Range"), length);
+        }
+        if (ranges == null) {
+            exchange.sendResponseHeaders(200, length == 0 ? -1l : length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                writer.write(os, 0, length);
+            }
+        } else if (ranges.isEmpty()) {
+            responseHeaders.add("Content-Range", "bytes */" + length);
+            exchange.sendResponseHeaders(416, -1l);
+        } else if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            responseHeaders.add("Content-Range", range.contentRange(length));
+            exchange.sendResponseHeaders(206, range.length());
+            try (OutputStream os = exchange.getResponseBody()) {
+                writer.write(os, range.start(), range.length());
+            }
+        } else {
+            byte[][] partHeaders = new byte[ranges.size()][];
+            long total = MULTIPART_END.length;
+            for (int i = 0; i < ranges.size(); i++) {
+                ByteRange range = ranges.get(i);
+                String part = (i == 0 ? "--" : "\r\n--") + MULTIPART_BOUNDARY + "\r\nContent-Type: " + contentType
+                        + "\r\nContent-Range: " + range.contentRange(length) + "\r\n\r\n";
+                partHeaders[i] = part.getBytes(StandardCharsets.US_ASCII);
+                total += partHeaders[i].length + range.length();
+            }
+            responseHeaders.set("content-type", "multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+            exchange.sendResponseHeaders(206, total);
+            try (OutputStream os = exchange.getResponseBody()) {
+                for (int i = 0; i < ranges.size(); i++) {
+                    ByteRange range = ranges.get(i);
+                    os.write(partHeaders[i]);
+                    writer.write(os, range.start(), range.length());
                 }
+                os.write(MULTIPART_END);
             }
-        } catch (IOException ioe) {
-            logger.log(Level.ERROR,
-                    () -> "Received `" + ioe.getMessage() + "` processing " + exchange.getRequestURI().toString());
         }
     }
 
+    public FileCache getCache() {
+        return cache;
+    }
+
+    public ResourceIndex getIndex() {
+        return index;
+    }
+
+    public Compressor getCompressor() {
+        return compressor;
+    }
+
+    public HotSet getHotSet() {
+        return hotSet;
+    }
+
+    public NegativeCache getNegativeCache() {
+        return missing;
+    }
+
+    public RejectPatterns getRejectPatterns() {
+        return rejectPatterns;
+    }
+
     private void loadContentTypes() throws IOException {
         StringBuilder builder = new StringBuilder();
         try (InputStream stream = FileHandler.class.getResourceAsStream("ContentTypes.json")) {
@@ -181,27 +768,4 @@ public class FileHandler implements HttpHandler {
         }
         cacheTimes = new JSONObject(builder.toString());
     }
-
-    private void loadRedirects() throws IOException {
-        StringBuilder builder = new StringBuilder();
-        File redirectsFile = new File(parent.getWebDir(), "redirects.json");
-        if (!redirectsFile.exists()) {
-            permanentRedirects = new JSONObject();
-            return;
-        }
-        try (InputStream stream = new FileInputStream(redirectsFile)) {
-            try (InputStreamReader reader = new InputStreamReader(stream)) {
-                try (BufferedReader buffer = new BufferedReader(reader)) {
-                    String line = "";
-                    while ((line = buffer.readLine()) != null) {
-                        if (!builder.isEmpty()) {
-                            builder.append('\n');
-                        }
-                        builder.append(line);
-                    }
-                }
-            }
-        }
-        permanentRedirects = new JSONObject(builder.toString());
-    }
 }
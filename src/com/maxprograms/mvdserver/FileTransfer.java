@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.json.JSONObject;
+
+public class FileTransfer {
+
+    public static final long DEFAULT_THRESHOLD = 1024l * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    public static final long DEFAULT_MAP_SIZE = 64l * 1024 * 1024;
+
+    private long threshold;
+    private int chunkSize;
+    private long mapSize;
+    private ArrayBlockingQueue<byte[]> buffers;
+
+    public FileTransfer(JSONObject config) {
+        threshold = config.optLong("largeFileThreshold", DEFAULT_THRESHOLD);
+        chunkSize = config.optInt("chunkSize", DEFAULT_CHUNK_SIZE);
+        mapSize = Math.max(chunkSize, config.optLong("mapSize", DEFAULT_MAP_SIZE));
+        buffers = new ArrayBlockingQueue<>(config.optInt("pooledBuffers", 16));
+    }
+
+    public boolean isLarge(long length) {
+        return threshold >= 0 && length >= threshold;
+    }
+
+    public void send(Path path, long position, long count, OutputStream os) throws IOException {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new byte[chunkSize];
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long end = Math.min(position + count, channel.size());
+            if (!isLarge(count)) {
+                ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+                while (position < end) {
+                    wrapper.clear().limit((int) Math.min(buffer.length, end - position));
+                    int read = channel.read(wrapper, position);
+                    if (read == -1) {
+                        break;
+                    }
+                    os.write(buffer, 0, read);
+                    position += read;
+                }
+                return;
+            }
+            while (position < end) {
+                long size = Math.min(mapSize, end - position);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                while (mapped.hasRemaining()) {
+                    int length = Math.min(buffer.length, mapped.remaining());
+                    mapped.get(buffer, 0, length);
+                    os.write(buffer, 0, length);
+                }
+                position += size;
+            }
+        } finally {
+            buffers.offer(buffer);
+        }
+    }
+
+    public void send(ByteBuffer data, long position, long count, OutputStream os) throws IOException {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new byte[chunkSize];
+        }
+        try {
+            ByteBuffer source = data.duplicate();
+            source.position((int) position).limit((int) Math.min(source.limit(), position + count));
+            while (source.hasRemaining()) {
+                int length = Math.min(buffer.length, source.remaining());
+                source.get(buffer, 0, length);
+                os.write(buffer, 0, length);
+            }
+        } finally {
+            buffers.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.net.httpserver.Headers;
+
+import org.json.JSONObject;
+
+public class HeaderTemplate {
+
+    private static Logger logger = System.getLogger(HeaderTemplate.class.getName());
+
+    // headers set by the handlers themselves; shared lists must not be added to
+    private static final Set<String> RESERVED = Set.of("accept-ranges", "cache-control", "content-encoding",
+            "content-length", "content-range", "content-type", "date", "etag", "last-modified", "location",
+            "retry-after", "transfer-encoding", "vary");
+
+    private static final String[][] DEFAULTS = { { "X-Frame-Options", "sameorigin" },
+            { "X-XSS-Protection", "1; mode=block" }, { "X-Content-Type-Options", "nosniff" },
+            { "Strict-Transport-Security", "max-age=31536000; includeSubDomains" },
+            { "X-Permitted-Cross-Domain-Policies", "master-only" },
+            { "Content-Security-Policy", "report-uri https://maxprograms.com" },
+            { "Referrer-Policy", "no-referrer-when-downgrade" },
+            { "Permissions-Policy", "microphone=(), camera=()" } };
+
+    private Map<String, List<String>> headers;
+
+    public HeaderTemplate(JSONObject config) {
+        headers = new LinkedHashMap<>();
+        if (config == null) {
+            for (String[] header : DEFAULTS) {
+                put(header[0], header[1]);
+            }
+            return;
+        }
+        Iterator<String> keys = config.keys();
+        while (keys.hasNext()) {
+            String name = keys.next();
+            put(name, config.getString(name));
+        }
+    }
+
+    private void put(String name, String value) {
+        String key = normalize(name);
+        if (key.isEmpty() || RESERVED.contains(key.toLowerCase()) || value.indexOf('\r') != -1
+                || value.indexOf('\n') != -1) {
+            logger.log(Level.WARNING, () -> "Ignoring response header " + name);
+            return;
+        }
+        headers.put(key, List.of(value));
+    }
+
+    // same form used by com.sun.net.httpserver.Headers for its keys
+    private static String normalize(String name) {
+        String key = name.trim();
+        if (key.isEmpty()) {
+            return key;
+        }
+        return Character.toUpperCase(key.charAt(0)) + key.substring(1).toLowerCase();
+    }
+
+    public void apply(Headers target) {
+        target.putAll(headers);
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+public class HotSet {
+
+    private int maxEntries;
+    private ConcurrentHashMap<String, LongAdder> counts;
+
+    public HotSet(int maxEntries) {
+        this.maxEntries = maxEntries;
+        counts = new ConcurrentHashMap<>();
+    }
+
+    public void record(String url) {
+        LongAdder adder = counts.get(url);
+        if (adder == null) {
+            if (counts.size() >= maxEntries) {
+                return;
+            }
+            adder = counts.computeIfAbsent(url, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    public void seed(String url, long count) {
+        if (counts.size() < maxEntries) {
+            counts.computeIfAbsent(url, k -> new LongAdder()).add(count);
+        }
+    }
+
+    public JSONObject toJSON() {
+        JSONObject result = new JSONObject();
+        for (Entry<String, LongAdder> entry : counts.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > 0) {
+                result.put(entry.getKey(), count);
+            }
+        }
+        return result;
+    }
+
+    // when the set is full, halving the counts makes room for paths that are no longer rare
+    public void trim() {
+        if (counts.size() < maxEntries) {
+            return;
+        }
+        for (Entry<String, LongAdder> entry : counts.entrySet()) {
+            LongAdder adder = entry.getValue();
+            long half = adder.sumThenReset() / 2;
+            if (half > 0) {
+                adder.add(half);
+            } else {
+                counts.remove(entry.getKey(), adder);
+            }
+        }
+    }
+
+    public int size() {
+        return counts.size();
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+public class InstrumentationFilter extends Filter {
+
+    private Metrics metrics;
+    private AccessLog accessLog;
+    private ReloadableHandler handler;
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    public InstrumentationFilter(Metrics metrics, AccessLog accessLog, ReloadableHandler handler) {
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.handler = handler;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long start = System.nanoTime();
+        metrics.begin();
+        ExchangeEvent event = new ExchangeEvent();
+        event.begin();
+        CountingOutputStream counter = new CountingOutputStream(exchange.getResponseBody());
+        exchange.setStreams(null, counter);
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            long micros = (System.nanoTime() - start) / 1000;
+            String path = exchange.getRequestURI().getRawPath();
+            int status = exchange.getResponseCode();
+            metrics.end();
+            metrics.record(path == null ? "" : path, status, counter.count, micros);
+            if (handler.get() instanceof VirtualHostHandler hosts) {
+                metrics.recordHost(hosts.siteName(exchange.getRequestHeaders().getFirst("Host")), counter.count);
+            }
+            if (accessLog != null) {
+                Headers headers = exchange.getRequestHeaders();
+                accessLog.log(new AccessRecord(System.currentTimeMillis(),
+                        exchange.getRemoteAddress().getAddress().getHostAddress(), headers.getFirst("Host"),
+                        exchange.getRequestMethod(), exchange.getRequestURI().toString(), exchange.getProtocol(),
+                        status, counter.count, headers.getFirst("Referer"), headers.getFirst("User-Agent"), micros));
+            }
+            if (event.shouldCommit()) {
+                event.method = exchange.getRequestMethod();
+                event.path = path;
+                event.status = status;
+                event.bytes = counter.count;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Collects request metrics";
+    }
+}
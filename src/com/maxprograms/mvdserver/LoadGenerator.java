@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.json.JSONObject;
+
+public class LoadGenerator {
+
+    private static Logger logger = System.getLogger(LoadGenerator.class.getName());
+
+    public static final String OPEN = "open";
+    public static final String CLOSED = "closed";
+
+    private record Target(HttpRequest request, double weight) {
+    }
+
+    private List<Target> targets = new ArrayList<>();
+    private double totalWeight;
+    private String mode = CLOSED;
+    private String base = "http://localhost:8080";
+    private double rate;
+    private int concurrency = 16;
+    private int maxInFlight = 10000;
+    private long duration = 30;
+    private long warmup = 5;
+    private long timeout = 30;
+    private boolean insecure;
+
+    private HttpClient client;
+    private ExecutorService executor;
+    private LatencyHistogram histogram = new LatencyHistogram();
+    private ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private LongAdder bytes = new LongAdder();
+    private LongAdder successful = new LongAdder();
+    private AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile long measureStart;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            help();
+            System.exit(1);
+        }
+        try {
+            LoadGenerator instance = new LoadGenerator(args);
+            instance.run();
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.ERROR, e.getMessage());
+            System.exit(1);
+        } catch (IOException | NoSuchAlgorithmException | KeyManagementException e) {
+            logger.log(Level.ERROR, e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+
+    public LoadGenerator(String[] args) throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        String[] params = MVDServer.fixPath(args);
+        List<String> urls = new ArrayList<>();
+        String listFile = "";
+        for (int i = 0; i < params.length; i++) {
+            String param = params[i];
+            boolean hasValue = (i + 1) < params.length;
+            if (param.equals("-help")) {
+                help();
+                System.exit(0);
+            }
+            if (param.equals("-url") && hasValue) {
+                urls.add(params[i + 1]);
+            }
+            if (param.equals("-requests") && hasValue) {
+                listFile = params[i + 1];
+            }
+            if (param.equals("-base") && hasValue) {
+                base = params[i + 1];
+            }
+            if (param.equals("-mode") && hasValue) {
+                mode = params[i + 1];
+            }
+            if (param.equals("-rate") && hasValue) {
+                rate = Double.parseDouble(params[i + 1]);
+            }
+            if (param.equals("-concurrency") && hasValue) {
+                concurrency = Integer.parseInt(params[i + 1]);
+            }
+            if (param.equals("-maxInFlight") && hasValue) {
+                maxInFlight = Integer.parseInt(params[i + 1]);
+            }
+            if (param.equals("-duration") && hasValue) {
+                duration = Long.parseLong(params[i + 1]);
+            }
+            if (param.equals("-warmup") && hasValue) {
+                warmup = Long.parseLong(params[i + 1]);
+            }
+            if (param.equals("-timeout") && hasValue) {
+                timeout = Long.parseLong(params[i + 1]);
+            }
+            if (param.equals("-insecure")) {
+                insecure = true;
+            }
+        }
+        if (!OPEN.equals(mode) && !CLOSED.equals(mode)) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        if (OPEN.equals(mode) && rate <= 0) {
+            throw new IllegalArgumentException("Open loop mode requires a positive -rate");
+        }
+        for (String url : urls) {
+            addTarget(new JSONObject().put("url", url));
+        }
+        if (!listFile.isEmpty()) {
+            loadRequests(new File(listFile));
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No requests to send, use -url or -requests");
+        }
+
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient.Builder builder = HttpClient.newBuilder().executor(executor).version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER).connectTimeout(Duration.ofSeconds(timeout));
+        if (insecure) {
+            System.setProperty("jdk.internal.httpclient.disableHostnameVerification", "true");
+            builder.sslContext(trustAll());
+        }
+        client = builder.build();
+    }
+
+    private void loadRequests(File file) throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            try (InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+                try (BufferedReader buffer = new BufferedReader(reader)) {
+                    String line = "";
+                    while ((line = buffer.readLine()) != null) {
+                        line = line.trim();
+                        if (line.isEmpty() || line.startsWith("#")) {
+                            continue;
+                        }
+                        if (line.startsWith("{")) {
+                            addTarget(new JSONObject(line));
+                        } else {
+                            String[] parts = line.split("\\s+");
+                            JSONObject json = new JSONObject().put("url", parts[0]);
+                            if (parts.length > 1) {
+                                json.put("weight", Double.parseDouble(parts[1]));
+                            }
+                            addTarget(json);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addTarget(JSONObject json) {
+        String url = json.getString("url");
+        URI uri = url.startsWith("/") ? URI.create(base + url) : URI.create(url);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(timeout))
+                .method(json.optString("method", "GET"), HttpRequest.BodyPublishers.noBody());
+        JSONObject headers = json.optJSONObject("headers");
+        if (headers != null) {
+            for (String name : headers.keySet()) {
+                builder.header(name, headers.getString(name));
+            }
+        }
+        double weight = json.optDouble("weight", 1.0);
+        if (weight > 0) {
+            targets.add(new Target(builder.build(), weight));
+            totalWeight += weight;
+        }
+    }
+
+    private HttpRequest next() {
+        if (targets.size() == 1) {
+            return targets.get(0).request();
+        }
+        double point = ThreadLocalRandom.current().nextDouble(totalWeight);
+        for (Target target : targets) {
+            point -= target.weight();
+            if (point < 0) {
+                return target.request();
+            }
+        }
+        return targets.get(targets.size() - 1).request();
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+        System.out.println("Sending " + targets.size() + " distinct requests in " + mode + " loop mode"
+                + (rate > 0 ? " at " + rate + " requests/s" : "") + " with concurrency " + concurrency);
+        if (OPEN.equals(mode)) {
+            runOpen(start, end);
+        } else {
+            runClosed(start, end);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        report(Math.min(System.nanoTime(), end) - measureStart);
+        executor.shutdown();
+    }
+
+    private void runOpen(long start, long end) {
+        long interval = (long) (1e9 / rate);
+        for (long i = 0;; i++) {
+            long intended = start + i * interval;
+            if (intended >= end) {
+                break;
+            }
+            sleepUntil(intended);
+            if (inFlight.get() >= maxInFlight) {
+                error(intended, "backlog");
+                continue;
+            }
+            inFlight.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    send(next(), intended);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void runClosed(long start, long end) {
+        long interval = rate > 0 ? (long) (1e9 * concurrency / rate) : 0;
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < concurrency; w++) {
+            long offset = interval * w / concurrency;
+            workers.add(Thread.ofVirtual().name("load-" + w).start(() -> {
+                long intended = start + offset;
+                while (intended < end) {
+                    if (interval > 0) {
+                        sleepUntil(intended);
+                    } else {
+                        intended = System.nanoTime();
+                    }
+                    send(next(), intended);
+                    intended += interval;
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void send(HttpRequest request, long intended) {
+        try {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            long count;
+            try (InputStream body = response.body()) {
+                count = body.transferTo(OutputStream.nullOutputStream());
+            }
+            if (intended >= measureStart) {
+                histogram.record((System.nanoTime() - intended) / 1000);
+                statuses.computeIfAbsent(response.statusCode(), k -> new LongAdder()).increment();
+                bytes.add(count);
+                if (response.statusCode() < 400) {
+                    successful.increment();
+                }
+            }
+        } catch (HttpTimeoutException e) {
+            error(intended, "timeout");
+        } catch (IOException e) {
+            error(intended, e.getClass().getSimpleName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void error(long intended, String kind) {
+        if (intended >= measureStart) {
+            histogram.record((System.nanoTime() - intended) / 1000);
+            errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void report(long elapsed) {
+        // failed, timed out and dropped requests are in the histogram but not in the throughput
+        long completed = histogram.getCount();
+        long succeeded = successful.sum();
+        long failed = 0;
+        for (LongAdder count : errors.values()) {
+            failed += count.sum();
+        }
+        double seconds = elapsed / 1e9;
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nDuration:    ").append(String.format("%.1f s", seconds));
+        builder.append("\nRequests:    ").append(completed);
+        builder.append("\nSuccessful:  ").append(succeeded).append(" (status below 400)");
+        builder.append("\nFailed:      ").append(failed).append(" (no response)");
+        builder.append("\nThroughput:  ").append(String.format("%.1f successful requests/s", succeeded / seconds));
+        builder.append("\nTransfer:    ").append(String.format("%.2f MB/s", bytes.sum() / seconds / 1048576));
+        builder.append(OPEN.equals(mode) || rate > 0 ? "\nLatency (corrected for coordinated omission):"
+                : "\nLatency (closed loop without -rate, not corrected):");
+        for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+            builder.append(String.format("%n    p%-8s %10.3f ms", q * 100, histogram.percentile(q) / 1000.0));
+        }
+        builder.append(String.format("%n    max       %10.3f ms", histogram.getMax() / 1000.0));
+        builder.append("\nStatus codes:");
+        for (Entry<Integer, LongAdder> entry : new TreeMap<>(statuses).entrySet()) {
+            builder.append("\n    ").append(entry.getKey()).append(": ").append(entry.getValue().sum());
+        }
+        builder.append("\nErrors:");
+        if (errors.isEmpty()) {
+            builder.append(" none");
+        }
+        for (Entry<String, LongAdder> entry : new TreeMap<>(errors).entrySet()) {
+            builder.append("\n    ").append(entry.getKey()).append(": ").append(entry.getValue().sum());
+        }
+        System.out.println(builder.toString());
+        JSONObject json = new JSONObject();
+        json.put("requests", completed);
+        json.put("successful", succeeded);
+        json.put("failed", failed);
+        json.put("throughput", succeeded / seconds);
+        json.put("p50", histogram.percentile(0.5));
+        json.put("p99", histogram.percentile(0.99));
+        json.put("p999", histogram.percentile(0.999));
+        JSONObject errorCounts = new JSONObject();
+        errors.forEach((kind, count) -> errorCounts.put(kind, count.sum()));
+        json.put("errors", errorCounts);
+        System.out.println("\n" + json.toString());
+    }
+
+    private static SSLContext trustAll() throws NoSuchAlgorithmException, KeyManagementException {
+        TrustManager[] managers = { new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                // accept any client
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                // accept self-signed test certificates
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        } };
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, managers, new SecureRandom());
+        return context;
+    }
+
+    private static void help() {
+        String launcher = "    loadgen.sh ";
+        if (File.separator.equals("\\")) {
+            launcher = "   loadgen.bat ";
+        }
+        String help = "Usage:\n\n" + launcher + """
+                    [-help] (-url url | -requests file) [-base url] [-mode open|closed]
+                    [-rate requests] [-concurrency threads] [-duration seconds] [-warmup seconds]
+                    [-timeout seconds] [-maxInFlight requests] [-insecure]
+
+                    Where:
+
+                        -help:        (optional) Display this help information and exit
+                        -url:         URL to request
+                        -requests:    File with one URL per line, optionally followed by a weight, or
+                                      JSON lines with "url", "method", "headers" and "weight" members
+                        -base:        (optional) Prefix for URLs that start with '/' (default: http://localhost:8080)
+                        -mode:        (optional) 'closed' loop with a fixed number of clients or 'open' loop
+                                      at a fixed arrival rate (default: closed)
+                        -rate:        (optional) Requests per second; required in open loop mode
+                        -concurrency: (optional) Number of clients in closed loop mode (default: 16)
+                        -duration:    (optional) Measurement time in seconds (default: 30)
+                        -warmup:      (optional) Seconds of traffic sent before measuring (default: 5)
+                        -timeout:     (optional) Request timeout in seconds (default: 30)
+                        -maxInFlight: (optional) Open loop requests pending before counting errors (default: 10000)
+                        -insecure:    (optional) Accept self-signed certificates
+                """;
+        System.out.println(help);
+    }
+}
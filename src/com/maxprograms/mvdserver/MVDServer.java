@@ -23,27 +23,19 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
-import com.sun.net.httpserver.HttpsConfigurator;
 import com.sun.net.httpserver.HttpsServer;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class MVDServer {
@@ -52,6 +44,8 @@ public class MVDServer {
 
     private HttpServer webServer;
     private HttpsServer secureServer;
+    private ServerExecutor webExecutor;
+    private ServerExecutor secureExecutor;
 
     private int httpPort = 8080;
     private int httpsPort = -1;
@@ -63,21 +57,32 @@ public class MVDServer {
     private String ipAddress = "";
     private File webDir;
     private boolean secure;
+    private JSONObject config;
+    private Metrics metrics;
+    private AccessLog accessLog;
+    private TlsConfigurator tls;
+    private HeaderTemplate responseHeaders;
+    private RateLimiter rateLimiter;
+    private int backlog;
+    private Warmup warmup;
+    private ProxyHandler proxy;
+    private volatile Map<String, FileHandler> fileHandlers = new LinkedHashMap<>();
+    private ReloadableHandler webHandler;
+    private ReloadableHandler secureHandler;
+    private AtomicBoolean stopping = new AtomicBoolean();
 
     public static void main(String[] args) {
         try {
             MVDServer instance = new MVDServer(args);
             instance.run();
-        } catch (IOException | UnrecoverableKeyException | KeyManagementException | KeyStoreException
-                | NoSuchAlgorithmException | CertificateException e) {
+        } catch (IOException | GeneralSecurityException e) {
             logger.log(Level.ERROR, e.getMessage(), e);
         } catch (Error e) {
             logger.log(Level.ERROR, "Severe error catched", e);
         }
     }
 
-    public MVDServer(String[] args) throws IOException, KeyStoreException, UnrecoverableKeyException,
-            NoSuchAlgorithmException, KeyManagementException, CertificateException {
+    public MVDServer(String[] args) throws IOException, GeneralSecurityException {
         String[] params = fixPath(args);
 
         for (int i = 0; i < params.length; i++) {
@@ -95,46 +100,192 @@ public class MVDServer {
             }
         }
         loadConfig();
+        responseHeaders = new HeaderTemplate(config.optJSONObject("headers"));
+        configureConnections(getConfig("connections"));
+        JSONObject rateLimitConfig = getConfig("rateLimit");
+        if (rateLimitConfig.optBoolean("enabled", false)) {
+            rateLimiter = new RateLimiter(rateLimitConfig);
+        }
+        JSONObject warmupConfig = getConfig("warmup");
+        if (warmupConfig.optBoolean("enabled", false)) {
+            warmup = new Warmup(warmupConfig, () -> fileHandlers);
+        }
 
         if (!ipAddress.isBlank()) {
             InetAddress address = InetAddress.getByName(ipAddress);
-            webServer = HttpServer.create(new InetSocketAddress(address, httpPort), 0);
+            webServer = HttpServer.create(new InetSocketAddress(address, httpPort), backlog);
         } else {
-            webServer = HttpServer.create(new InetSocketAddress(httpPort), 0);
+            webServer = HttpServer.create(new InetSocketAddress(httpPort), backlog);
         }
-        webServer.setExecutor(new ThreadPoolExecutor(4, 8, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100)));
+        webExecutor = new ServerExecutor(getConfig("executor"));
+        webServer.setExecutor(webExecutor);
+        metrics = new Metrics();
+        metrics.setRateLimiter(rateLimiter);
+        JSONObject proxyConfig = getConfig("proxy");
+        if (proxyConfig.optBoolean("enabled", false)) {
+            proxy = new ProxyHandler(proxyConfig);
+            metrics.setProxy(proxy);
+        }
+        JSONObject accessLogConfig = getConfig("accessLog");
+        if (accessLogConfig.optBoolean("enabled", false)) {
+            accessLog = new AccessLog(accessLogConfig);
+            metrics.setAccessLog(accessLog);
+        }
+        metrics.addExecutor("http", webExecutor);
+        Map<String, FileHandler> sites = new LinkedHashMap<>();
 
-        if (!keystore.isEmpty() && !password.isEmpty() && httpsPort != -1) {
-            KeyStore store = KeyStore.getInstance("JKS");
-            try (FileInputStream inputStream = new FileInputStream(keystore)) {
-                store.load(inputStream, password.toCharArray());
+        JSONObject tlsConfig = getConfig("tls");
+        List<SniKeyManager.Store> stores = new ArrayList<>();
+        if (!keystore.isEmpty() && !password.isEmpty()) {
+            stores.add(new SniKeyManager.Store(new File(keystore), password.toCharArray()));
+        }
+        JSONArray keystores = tlsConfig.optJSONArray("keystores");
+        if (keystores != null) {
+            for (int i = 0; i < keystores.length(); i++) {
+                stores.add(TlsConfigurator.store(keystores.getJSONObject(i)));
             }
-
-            KeyManagerFactory keyManager = KeyManagerFactory.getInstance("SunX509");
-            keyManager.init(store, password.toCharArray());
-
-            TrustManagerFactory trustManager = TrustManagerFactory.getInstance("SunX509");
-            trustManager.init(store);
-
-            SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
-            sslContext.init(keyManager.getKeyManagers(), trustManager.getTrustManagers(), new SecureRandom());
+        }
+        if (!stores.isEmpty() && httpsPort != -1) {
+            tls = TlsConfigurator.create(stores, tlsConfig);
+            metrics.setTls(tls);
 
             if (!ipAddress.isBlank()) {
                 InetAddress address = InetAddress.getByName(ipAddress);
-                secureServer = HttpsServer.create(new InetSocketAddress(address, httpsPort), 0);
+                secureServer = HttpsServer.create(new InetSocketAddress(address, httpsPort), backlog);
             } else {
-                secureServer = HttpsServer.create(new InetSocketAddress(httpsPort), 0);
+                secureServer = HttpsServer.create(new InetSocketAddress(httpsPort), backlog);
             }
-            secureServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
-            secureServer.createContext("/", new FileHandler(this));
-            secureServer.setExecutor(new ThreadPoolExecutor(4, 8, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100)));
+            secureServer.setHttpsConfigurator(tls);
+            secureExecutor = new ServerExecutor(getConfig("executor"));
+            secureServer.setExecutor(secureExecutor);
+            metrics.addExecutor("https", secureExecutor);
+            secureHandler = createContext(secureServer, secureExecutor, createSiteHandler("https", sites), true);
+            createProxyContexts(secureServer, secureExecutor, secureHandler);
 
-            logger.log(Level.INFO, "HTTPS Server created");
-            webServer.createContext("/", new RedirectHandler(this));
+            logger.log(Level.INFO,
+                    () -> "HTTPS Server created, protocols: " + String.join(", ", tls.getProtocols()));
+            webHandler = createContext(webServer, webExecutor, new RedirectHandler(this), false);
             secure = true;
         } else {
-            webServer.createContext("/", new FileHandler(this));
+            webHandler = createContext(webServer, webExecutor, createSiteHandler("http", sites), true);
+            createProxyContexts(webServer, webExecutor, webHandler);
+        }
+        fileHandlers = sites;
+        metrics.setFileHandlers(fileHandlers);
+        logger.log(Level.INFO, () -> "Executor mode: " + webExecutor.getMode() + ", limit: " + webExecutor.getLimit());
+    }
+
+    // metrics and control are only published on the server that serves the site, HTTPS when enabled
+    private ReloadableHandler createContext(HttpServer server, ServerExecutor executor, HttpHandler site,
+            boolean published) {
+        ReloadableHandler handler = new ReloadableHandler(site);
+        HttpContext siteContext = server.createContext("/", handler);
+        addFilters(siteContext, executor, handler);
+        JSONObject metricsConfig = getConfig("metrics");
+        if (published && metricsConfig.optBoolean("enabled", false)) {
+            String path = metricsConfig.optString("path", "/metrics");
+            HttpContext metricsContext = server.createContext(path,
+                    new MetricsHandler(metrics, metricsConfig.optString("token", "")));
+            metricsContext.getFilters().add(new ExactPathFilter(siteContext, path));
+            metricsContext.getFilters().add(new OverloadFilter(executor));
+        }
+        if (warmup != null) {
+            String path = getConfig("warmup").optString("readyPath", "/ready");
+            HttpContext readyContext = server.createContext(path, new ReadyHandler(warmup));
+            readyContext.getFilters().add(new ExactPathFilter(siteContext, path));
+        }
+        JSONObject controlConfig = getConfig("control");
+        if (published && controlConfig.optBoolean("enabled", false)) {
+            String path = controlConfig.optString("path", "/control");
+            HttpContext controlContext = server.createContext(path, new ControlHandler(this, controlConfig));
+            controlContext.getFilters().add(new ExactPathFilter(siteContext, path + "/stop", path + "/reload"));
+        }
+        return handler;
+    }
+
+    // proxied prefixes share the filters of the site they are part of
+    private void createProxyContexts(HttpServer server, ServerExecutor executor, ReloadableHandler site) {
+        if (proxy != null) {
+            for (String prefix : proxy.getPrefixes()) {
+                addFilters(server.createContext(prefix, proxy), executor, site);
+                logger.log(Level.INFO, () -> "Proxy context " + prefix + " created");
+            }
+        }
+    }
+
+    private void addFilters(HttpContext context, ServerExecutor executor, ReloadableHandler site) {
+        context.getFilters().add(new InstrumentationFilter(metrics, accessLog, site));
+        if (rateLimiter != null) {
+            context.getFilters().add(new RateLimitFilter(rateLimiter));
         }
+        context.getFilters().add(new OverloadFilter(executor));
+    }
+
+    // HttpServer reads these properties once, when the first server is created
+    private void configureConnections(JSONObject connections) {
+        backlog = connections.optInt("backlog", 0);
+        setProperty("sun.net.httpserver.nodelay", connections.optBoolean("tcpNoDelay", true) ? "true" : "false");
+        if (connections.has("maxConnections")) {
+            setProperty("jdk.httpserver.maxConnections", Integer.toString(connections.getInt("maxConnections")));
+        }
+        if (connections.has("maxIdleConnections")) {
+            setProperty("sun.net.httpserver.maxIdleConnections",
+                    Integer.toString(connections.getInt("maxIdleConnections")));
+        }
+        if (connections.has("idleInterval")) {
+            setProperty("sun.net.httpserver.idleInterval", Long.toString(connections.getLong("idleInterval")));
+        }
+    }
+
+    private static void setProperty(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    // the handlers are added to sites, which is only published once complete
+    private HttpHandler createSiteHandler(String name, Map<String, FileHandler> sites) throws IOException {
+        FileHandler main = createFileHandler(name, new JSONObject(), sites);
+        JSONObject virtualHosts = getConfig("virtualHosts");
+        if (virtualHosts.isEmpty()) {
+            return main;
+        }
+        VirtualHostHandler router = new VirtualHostHandler(hostName.isEmpty() ? "default" : hostName, main);
+        for (String host : virtualHosts.keySet()) {
+            JSONObject site = virtualHosts.getJSONObject(host);
+            List<String> aliases = new ArrayList<>();
+            JSONArray array = site.optJSONArray("aliases");
+            if (array != null) {
+                for (int i = 0; i < array.length(); i++) {
+                    aliases.add(array.getString(i));
+                }
+            }
+            router.addSite(host, aliases, createFileHandler(name + '/' + host, site, sites));
+            logger.log(Level.INFO, () -> "Virtual host " + host + " created");
+        }
+        return router;
+    }
+
+    private FileHandler createFileHandler(String name, JSONObject site, Map<String, FileHandler> sites)
+            throws IOException {
+        FileHandler handler = new FileHandler(this, site);
+        sites.put(name, handler);
+        return handler;
+    }
+
+    protected List<String> getVirtualHostNames() {
+        List<String> result = new ArrayList<>();
+        JSONObject virtualHosts = getConfig("virtualHosts");
+        for (String host : virtualHosts.keySet()) {
+            result.add(host);
+            JSONArray aliases = virtualHosts.getJSONObject(host).optJSONArray("aliases");
+            if (aliases != null) {
+                for (int i = 0; i < aliases.length(); i++) {
+                    result.add(aliases.getString(i));
+                }
+            }
+        }
+        return result;
     }
 
     private void setWebDir(String dir) throws IOException {
@@ -163,7 +314,7 @@ public class MVDServer {
                 }
             }
         }
-        JSONObject config = new JSONObject(builder.toString());
+        config = new JSONObject(builder.toString());
         if (config.has("httpPort")) {
             httpPort = config.getInt("httpPort");
         }
@@ -209,12 +360,20 @@ public class MVDServer {
     }
 
     private void run() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "shutdown"));
+        boolean waitForWarmup = getConfig("warmup").optBoolean("wait", false);
+        if (warmup != null && waitForWarmup) {
+            warmup.run();
+        }
         if (secureServer != null) {
             secureServer.start();
             logger.log(Level.INFO, "HTTPS Server started on port " + httpsPort);
         }
         webServer.start();
         logger.log(Level.INFO, "Server started on port " + httpPort);
+        if (warmup != null && !waitForWarmup) {
+            warmup.start();
+        }
     }
 
     protected File getWebDir() throws IOException {
@@ -224,17 +383,172 @@ public class MVDServer {
         return webDir;
     }
 
-    protected void stopServer(String word) {
-        if (!stopWord.isEmpty() && stopWord.equals(word)) {
-            logger.log(Level.INFO, "Stopping server");
+    protected JSONObject getConfig(String section) {
+        JSONObject result = config.optJSONObject(section);
+        return result != null ? result : new JSONObject();
+    }
+
+    // the URL key is only accepted when it is configured and the control endpoint is off
+    protected boolean isStopWordEnabled() {
+        return !stopWord.isEmpty() && !getConfig("control").optBoolean("enabled", false);
+    }
+
+    protected boolean isStopWord(String word) {
+        return isStopWordEnabled() && stopWord.equals(word);
+    }
+
+    // counted by the executors so that requests waiting in their queues are included
+    protected long getInFlight() {
+        long result = webExecutor.getInFlight();
+        if (secureExecutor != null) {
+            result += secureExecutor.getInFlight();
+        }
+        return result;
+    }
+
+    // runs outside the request thread so the response that asked for it is sent
+    protected void shutdown() {
+        Thread thread = new Thread(() -> {
+            drain();
             System.exit(0);
+        }, "stop");
+        thread.start();
+    }
+
+    private void drain() {
+        if (!stopping.compareAndSet(false, true)) {
+            return;
+        }
+        JSONObject controlConfig = getConfig("control");
+        int timeout = controlConfig.optInt("drainTimeout", 30);
+        long inFlight = getInFlight();
+        logger.log(Level.INFO, "Stopping server, " + inFlight + " requests in progress");
+        long start = System.nanoTime();
+        long deadline = start + timeout * 1_000_000_000l;
+        if (secureServer != null) {
+            stop(secureServer, timeout, "stop-https");
+        }
+        stop(webServer, timeout, "stop-http");
+        // HttpServer.stop waits the whole delay unless an exchange ends after it is called
+        while (getInFlight() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long abandoned = getInFlight();
+        logger.log(Level.INFO, "Drained " + Math.max(0, inFlight - abandoned) + " requests, " + abandoned
+                + " abandoned in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        webExecutor.shutdown();
+        if (secureExecutor != null) {
+            secureExecutor.shutdown();
+        }
+        for (FileHandler handler : fileHandlers.values()) {
+            if (handler.getCache() != null) {
+                logger.log(Level.INFO, "File cache: " + handler.getCache().toString());
+            }
+            if (handler.getCompressor() != null) {
+                logger.log(Level.INFO, "Compression cache: " + handler.getCompressor().getCache().toString());
+            }
+            if (handler.getNegativeCache() != null) {
+                logger.log(Level.INFO, "Negative cache hit rate: " + handler.getNegativeCache().getHitRate());
+            }
+        }
+        if (warmup != null) {
+            warmup.save();
         }
+        if (accessLog != null) {
+            accessLog.close();
+        }
+        logger.log(Level.INFO, "Server stopped");
+    }
+
+    // closes the listener at once; the thread is left behind if the server is idle
+    private static void stop(HttpServer server, int timeout, String name) {
+        Thread thread = new Thread(() -> server.stop(timeout), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // listeners, executors, TLS and rate limits are kept; sites, headers and redirects are rebuilt
+    protected synchronized void reload() throws IOException {
+        JSONObject previousConfig = config;
+        int previousHttpPort = httpPort;
+        int previousHttpsPort = httpsPort;
+        String previousAddress = ipAddress;
+        String previousHostName = hostName;
+        String previousKeystore = keystore;
+        String previousPassword = password;
+        String previousStopWord = stopWord;
+        File previousWebDir = webDir;
+        HeaderTemplate previousHeaders = responseHeaders;
+        Map<String, FileHandler> previousHandlers = fileHandlers;
+        Map<String, FileHandler> sites = new LinkedHashMap<>();
+        HttpHandler site;
+        try {
+            loadConfig();
+            if (httpPort != previousHttpPort || httpsPort != previousHttpsPort || !ipAddress.equals(previousAddress)) {
+                logger.log(Level.WARNING, "Listener settings changed, restart the server to apply them");
+                httpPort = previousHttpPort;
+                httpsPort = previousHttpsPort;
+                ipAddress = previousAddress;
+            }
+            responseHeaders = new HeaderTemplate(config.optJSONObject("headers"));
+            site = createSiteHandler(secure ? "https" : "http", sites);
+        } catch (IOException | RuntimeException e) {
+            for (FileHandler handler : sites.values()) {
+                handler.close();
+            }
+            // nothing was switched yet, the previous settings keep serving
+            config = previousConfig;
+            httpPort = previousHttpPort;
+            httpsPort = previousHttpsPort;
+            ipAddress = previousAddress;
+            hostName = previousHostName;
+            keystore = previousKeystore;
+            password = previousPassword;
+            stopWord = previousStopWord;
+            webDir = previousWebDir;
+            responseHeaders = previousHeaders;
+            throw e;
+        }
+        fileHandlers = sites;
+        if (secure) {
+            secureHandler.set(site);
+            webHandler.set(new RedirectHandler(this));
+        } else {
+            webHandler.set(site);
+        }
+        metrics.setFileHandlers(fileHandlers);
+        if (warmup != null) {
+            // the counts of the previous handlers are kept before they are closed
+            warmup.save(previousHandlers);
+        }
+        for (FileHandler handler : previousHandlers.values()) {
+            handler.close();
+        }
+        if (warmup != null) {
+            // the new handlers start with empty caches and counts
+            Map<String, FileHandler> handlers = fileHandlers;
+            new Thread(() -> warmup.load(handlers), "warmup").start();
+        }
+        logger.log(Level.INFO, "Configuration reloaded");
     }
 
     protected String getHostName() {
         return hostName;
     }
 
+    protected HeaderTemplate getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    protected boolean hasAccessLog() {
+        return accessLog != null;
+    }
+
     protected boolean isSecure() {
         return secure;
     }
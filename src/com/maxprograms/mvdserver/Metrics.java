@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+public class Metrics {
+
+    private static final int MAX_EXTENSIONS = 64;
+    private static final String OTHER = "other";
+
+    private ConcurrentHashMap<Integer, LongAdder> statusCounts;
+    private ConcurrentHashMap<String, LongAdder> extensionCounts;
+    private LongAdder bytesSent;
+    private LongAdder inFlight;
+    private ConcurrentHashMap<String, LongAdder> hostRequests;
+    private ConcurrentHashMap<String, LongAdder> hostBytes;
+    private LatencyHistogram latency;
+    private Map<String, ServerExecutor> executors;
+    private volatile Map<String, FileHandler> fileHandlers;
+    private AccessLog accessLog;
+    private TlsConfigurator tls;
+    private RateLimiter rateLimiter;
+    private ProxyHandler proxy;
+
+    public Metrics() {
+        statusCounts = new ConcurrentHashMap<>();
+        extensionCounts = new ConcurrentHashMap<>();
+        bytesSent = new LongAdder();
+        inFlight = new LongAdder();
+        hostRequests = new ConcurrentHashMap<>();
+        hostBytes = new ConcurrentHashMap<>();
+        latency = new LatencyHistogram();
+        executors = new ConcurrentHashMap<>();
+        fileHandlers = Map.of();
+    }
+
+    public void addExecutor(String name, ServerExecutor executor) {
+        executors.put(name, executor);
+    }
+
+    // replaced as a whole when the configuration is reloaded
+    public void setFileHandlers(Map<String, FileHandler> handlers) {
+        fileHandlers = Map.copyOf(handlers);
+    }
+
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    public void setTls(TlsConfigurator tls) {
+        this.tls = tls;
+    }
+
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public void setProxy(ProxyHandler proxy) {
+        this.proxy = proxy;
+    }
+
+    public void begin() {
+        inFlight.increment();
+    }
+
+    public void end() {
+        inFlight.decrement();
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public void record(String path, int status, long bytes, long micros) {
+        counter(statusCounts, status).increment();
+        counter(extensionCounts, extension(path)).increment();
+        bytesSent.add(bytes);
+        latency.record(micros);
+    }
+
+    // host names come from the configured virtual hosts, so the maps stay small
+    public void recordHost(String host, long bytes) {
+        counter(hostRequests, host).increment();
+        counter(hostBytes, host).add(bytes);
+    }
+
+    private static <K> LongAdder counter(ConcurrentHashMap<K, LongAdder> map, K key) {
+        LongAdder adder = map.get(key);
+        if (adder == null) {
+            adder = map.computeIfAbsent(key, k -> new LongAdder());
+        }
+        return adder;
+    }
+
+    private String extension(String path) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash || path.length() - dot > 8) {
+            return path.endsWith("/") ? ".html" : OTHER;
+        }
+        String extension = path.substring(dot).toLowerCase();
+        for (int i = 1; i < extension.length(); i++) {
+            if (!Character.isLetterOrDigit(extension.charAt(i))) {
+                return OTHER;
+            }
+        }
+        if (!extensionCounts.containsKey(extension) && extensionCounts.size() >= MAX_EXTENSIONS) {
+            return OTHER;
+        }
+        return extension;
+    }
+
+    public long getRequests() {
+        long result = 0;
+        for (LongAdder adder : statusCounts.values()) {
+            result += adder.sum();
+        }
+        return result;
+    }
+
+    public String toPrometheus() {
+        StringBuilder builder = new StringBuilder(4096);
+
+        header(builder, "mvdserver_requests_total", "counter", "Requests by response status");
+        for (Entry<Integer, LongAdder> entry : new TreeMap<>(statusCounts).entrySet()) {
+            sample(builder, "mvdserver_requests_total", "status", entry.getKey().toString(), entry.getValue().sum());
+        }
+
+        header(builder, "mvdserver_requests_by_extension_total", "counter", "Requests by file extension");
+        for (Entry<String, LongAdder> entry : new TreeMap<>(extensionCounts).entrySet()) {
+            sample(builder, "mvdserver_requests_by_extension_total", "extension", entry.getKey(),
+                    entry.getValue().sum());
+        }
+
+        header(builder, "mvdserver_response_bytes_total", "counter", "Response body bytes sent");
+        sample(builder, "mvdserver_response_bytes_total", null, null, bytesSent.sum());
+
+        if (!hostRequests.isEmpty()) {
+            header(builder, "mvdserver_host_requests_total", "counter", "Requests by virtual host");
+            for (Entry<String, LongAdder> entry : new TreeMap<>(hostRequests).entrySet()) {
+                sample(builder, "mvdserver_host_requests_total", "host", entry.getKey(), entry.getValue().sum());
+            }
+            header(builder, "mvdserver_host_response_bytes_total", "counter", "Response body bytes by virtual host");
+            for (Entry<String, LongAdder> entry : new TreeMap<>(hostBytes).entrySet()) {
+                sample(builder, "mvdserver_host_response_bytes_total", "host", entry.getKey(),
+                        entry.getValue().sum());
+            }
+        }
+
+        header(builder, "mvdserver_requests_in_flight", "gauge", "Requests being processed or drained");
+        sample(builder, "mvdserver_requests_in_flight", null, null, inFlight.sum());
+
+        header(builder, "mvdserver_request_duration_seconds", "summary", "Request processing time");
+        quantile(builder, "0.5");
+        quantile(builder, "0.9");
+        quantile(builder, "0.99");
+        quantile(builder, "0.999");
+        builder.append("mvdserver_request_duration_seconds_sum ").append(latency.getSum() / 1e6).append('\n');
+        builder.append("mvdserver_request_duration_seconds_count ").append(latency.getCount()).append('\n');
+
+        LongAdder notModified = statusCounts.get(304);
+        long requests = getRequests();
+        header(builder, "mvdserver_not_modified_ratio", "gauge", "Fraction of requests answered with 304");
+        builder.append("mvdserver_not_modified_ratio ")
+                .append(requests == 0 || notModified == null ? 0.0 : (double) notModified.sum() / requests)
+                .append('\n');
+
+        executorGauge(builder, "mvdserver_executor_active", "gauge", "Requests being processed",
+                ServerExecutor::getActive);
+        executorGauge(builder, "mvdserver_executor_queued", "gauge", "Requests waiting for a thread",
+                ServerExecutor::getQueued);
+        executorGauge(builder, "mvdserver_executor_limit", "gauge", "Maximum requests accepted before shedding",
+                ServerExecutor::getLimit);
+        executorGauge(builder, "mvdserver_executor_rejected_total", "counter", "Requests rejected with 503",
+                ServerExecutor::getRejected);
+
+        if (rateLimiter != null) {
+            header(builder, "mvdserver_rate_limited_total", "counter", "Requests rejected with 429");
+            sample(builder, "mvdserver_rate_limited_total", null, null, rateLimiter.getLimited());
+            header(builder, "mvdserver_rate_limit_overflow_total", "counter",
+                    "Requests limited in the shared bucket because the client table was full");
+            sample(builder, "mvdserver_rate_limit_overflow_total", null, null, rateLimiter.getOverflow());
+            header(builder, "mvdserver_rate_limit_clients", "gauge", "Clients with an active bucket");
+            sample(builder, "mvdserver_rate_limit_clients", null, null, rateLimiter.getClients());
+        }
+
+        cacheMetric(builder, "mvdserver_cache_hits_total", "counter", "File cache hits", FileCache::getHits);
+        cacheMetric(builder, "mvdserver_cache_misses_total", "counter", "File cache misses", FileCache::getMisses);
+        cacheMetric(builder, "mvdserver_cache_evictions_total", "counter", "File cache evictions",
+                FileCache::getEvictions);
+        cacheMetric(builder, "mvdserver_cache_bytes", "gauge", "Bytes held in the file cache", FileCache::getSize);
+
+        negativeMetric(builder, "mvdserver_negative_cache_hits_total", "counter",
+                "Missing resources answered from memory", NegativeCache::getHits);
+        negativeMetric(builder, "mvdserver_negative_cache_misses_total", "counter",
+                "Lookups not found in the negative cache", NegativeCache::getMisses);
+        negativeMetric(builder, "mvdserver_negative_cache_entries", "gauge", "URLs held in the negative cache",
+                NegativeCache::size);
+        header(builder, "mvdserver_negative_cache_hit_ratio", "gauge", "Fraction of negative cache lookups that hit");
+        for (Entry<String, FileHandler> entry : new TreeMap<>(fileHandlers).entrySet()) {
+            NegativeCache missing = entry.getValue().getNegativeCache();
+            if (missing != null) {
+                builder.append("mvdserver_negative_cache_hit_ratio{handler=\"").append(entry.getKey()).append("\"} ")
+                        .append(missing.getHitRate()).append('\n');
+            }
+        }
+        header(builder, "mvdserver_rejected_paths_total", "counter", "Requests rejected by path pattern");
+        for (Entry<String, FileHandler> entry : new TreeMap<>(fileHandlers).entrySet()) {
+            RejectPatterns patterns = entry.getValue().getRejectPatterns();
+            if (patterns != null) {
+                sample(builder, "mvdserver_rejected_paths_total", "handler", entry.getKey(), patterns.getRejected());
+            }
+        }
+
+        if (tls != null) {
+            header(builder, "mvdserver_tls_connections_total", "counter", "TLS connections accepted");
+            sample(builder, "mvdserver_tls_connections_total", null, null, tls.getConnections());
+            header(builder, "mvdserver_tls_full_handshakes_total", "counter",
+                    "TLS handshakes that selected a certificate");
+            sample(builder, "mvdserver_tls_full_handshakes_total", null, null, tls.getFullHandshakes());
+            header(builder, "mvdserver_tls_resumption_ratio", "gauge", "Fraction of TLS connections resumed");
+            builder.append("mvdserver_tls_resumption_ratio ").append(tls.getResumptionRate()).append('\n');
+        }
+
+        if (proxy != null) {
+            ProxyCache cache = proxy.getCache();
+            header(builder, "mvdserver_proxy_cache_hits_total", "counter", "Proxied requests answered from the cache");
+            sample(builder, "mvdserver_proxy_cache_hits_total", null, null, cache.getHits());
+            header(builder, "mvdserver_proxy_cache_misses_total", "counter",
+                    "Cacheable proxied requests not in the cache");
+            sample(builder, "mvdserver_proxy_cache_misses_total", null, null, cache.getMisses());
+            header(builder, "mvdserver_proxy_coalesced_total", "counter",
+                    "Cache misses that waited for a request already sent upstream");
+            sample(builder, "mvdserver_proxy_coalesced_total", null, null, proxy.getCoalesced());
+            header(builder, "mvdserver_proxy_errors_total", "counter", "Proxied requests that failed upstream");
+            sample(builder, "mvdserver_proxy_errors_total", null, null, proxy.getErrors());
+            header(builder, "mvdserver_proxy_cache_bytes", "gauge", "Bytes held in the proxy cache");
+            sample(builder, "mvdserver_proxy_cache_bytes", null, null, cache.getSize());
+        }
+
+        if (accessLog != null) {
+            header(builder, "mvdserver_access_log_written_total", "counter", "Access log records written");
+            sample(builder, "mvdserver_access_log_written_total", null, null, accessLog.getWritten());
+            header(builder, "mvdserver_access_log_dropped_total", "counter", "Access log records dropped");
+            sample(builder, "mvdserver_access_log_dropped_total", null, null, accessLog.getDropped());
+        }
+        return builder.toString();
+    }
+
+    private void quantile(StringBuilder builder, String quantile) {
+        builder.append("mvdserver_request_duration_seconds{quantile=\"").append(quantile).append("\"} ")
+                .append(latency.percentile(Double.parseDouble(quantile)) / 1e6).append('\n');
+    }
+
+    private void executorGauge(StringBuilder builder, String name, String type, String help,
+            ToLongFunction<ServerExecutor> getter) {
+        header(builder, name, type, help);
+        for (Entry<String, ServerExecutor> entry : new TreeMap<>(executors).entrySet()) {
+            sample(builder, name, "server", entry.getKey(), getter.applyAsLong(entry.getValue()));
+        }
+    }
+
+    private void cacheMetric(StringBuilder builder, String name, String type, String help,
+            ToLongFunction<FileCache> getter) {
+        header(builder, name, type, help);
+        for (Entry<String, FileHandler> entry : new TreeMap<>(fileHandlers).entrySet()) {
+            FileHandler handler = entry.getValue();
+            if (handler.getCache() != null) {
+                sample(builder, name, "cache", entry.getKey() + "/files", getter.applyAsLong(handler.getCache()));
+            }
+            if (handler.getCompressor() != null) {
+                sample(builder, name, "cache", entry.getKey() + "/compressed",
+                        getter.applyAsLong(handler.getCompressor().getCache()));
+            }
+        }
+    }
+
+    private void negativeMetric(StringBuilder builder, String name, String type, String help,
+            ToLongFunction<NegativeCache> getter) {
+        header(builder, name, type, help);
+        for (Entry<String, FileHandler> entry : new TreeMap<>(fileHandlers).entrySet()) {
+            NegativeCache missing = entry.getValue().getNegativeCache();
+            if (missing != null) {
+                sample(builder, name, "handler", entry.getKey(), getter.applyAsLong(missing));
+            }
+        }
+    }
+
+    private static void header(StringBuilder builder, String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder builder, String name, String label, String value, long sample) {
+        builder.append(name);
+        if (label != null) {
+            builder.append('{').append(label).append("=\"").append(value).append("\"}");
+        }
+        builder.append(' ').append(sample).append('\n');
+    }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class MetricsHandler implements HttpHandler {
+
+    private static Logger logger = System.getLogger(MetricsHandler.class.getName());
+
+    private Metrics metrics;
+    private byte[] token;
+
+    public MetricsHandler(Metrics metrics, String token) {
+        this.metrics = metrics;
+        this.token = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!isAuthorized(exchange)) {
+            logger.log(Level.WARNING, () -> "Rejected metrics request from " + exchange.getRemoteAddress());
+            exchange.sendResponseHeaders(403, -1l);
+            exchange.close();
+            return;
+        }
+        byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("content-type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private boolean isAuthorized(HttpExchange exchange) {
+        if (token.length == "Bearer ".length()) {
+            return exchange.getRemoteAddress().getAddress().isLoopbackAddress();
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null
+                && MessageDigest.isEqual(token, authorization.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+public class NegativeCache {
+
+    private long ttl;
+    private int maxEntries;
+    private ConcurrentHashMap<String, Long> entries;
+    private LongAdder hits;
+    private LongAdder misses;
+
+    public NegativeCache(JSONObject config) {
+        ttl = TimeUnit.SECONDS.toNanos(config.optLong("ttl", 60));
+        maxEntries = config.optInt("maxEntries", 10000);
+        entries = new ConcurrentHashMap<>();
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    public boolean contains(String url) {
+        Long expiry = entries.get(url);
+        if (expiry != null) {
+            if (expiry.longValue() - System.nanoTime() > 0) {
+                hits.increment();
+                return true;
+            }
+            entries.remove(url, expiry);
+        }
+        misses.increment();
+        return false;
+    }
+
+    public void add(String url) {
+        long now = System.nanoTime();
+        if (entries.size() >= maxEntries) {
+            entries.values().removeIf(expiry -> expiry.longValue() - now <= 0);
+            if (entries.size() >= maxEntries) {
+                entries.clear();
+            }
+        }
+        entries.put(url, now + ttl);
+    }
+
+    public void invalidate(Path path) {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.net.http.HttpHeaders;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+public class ProxyCache {
+
+    private static final Set<Integer> CACHEABLE = Set.of(200, 203, 300, 301, 404, 410);
+    private static final long HEADER_SIZE = 512;
+
+    public record Entry(int status, Map<String, List<String>> headers, byte[] body, long created, long expires) {
+
+        public long size() {
+            return body.length + HEADER_SIZE;
+        }
+
+        public long age() {
+            return Math.max(0, (System.currentTimeMillis() - created) / 1000);
+        }
+    }
+
+    private long maxSize;
+    private long maxEntrySize;
+    private long size;
+    private LinkedHashMap<String, Entry> entries;
+
+    private LongAdder hits;
+    private LongAdder misses;
+
+    public ProxyCache(JSONObject config) {
+        maxSize = config.optLong("cacheSize", 32l * 1024 * 1024);
+        maxEntrySize = Math.min(config.optLong("maxEntrySize", 1024l * 1024), maxSize);
+        entries = new LinkedHashMap<>(256, 0.75f, true);
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    public boolean accepts(long length) {
+        return length + HEADER_SIZE <= maxEntrySize;
+    }
+
+    public Entry get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires() <= System.currentTimeMillis()) {
+                entries.remove(key);
+                size -= entry.size();
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        if (!accepts(entry.body().length)) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            size -= old.size();
+        }
+        size += entry.size();
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            size -= eldest.size();
+        }
+    }
+
+    // seconds a shared cache may keep the response, or 0 when it must not be stored
+    public static long lifetime(int status, HttpHeaders headers) {
+        if (!CACHEABLE.contains(status) || headers.firstValue("Set-Cookie").isPresent()) {
+            return 0;
+        }
+        for (String vary : headers.allValues("Vary")) {
+            for (String field : vary.split(",")) {
+                if (!field.isBlank() && !"accept-encoding".equals(field.trim().toLowerCase(Locale.ROOT))) {
+                    return 0;
+                }
+            }
+        }
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        for (String value : headers.allValues("Cache-Control")) {
+            for (String directive : value.split(",")) {
+                String token = directive.trim().toLowerCase(Locale.ROOT);
+                if (token.equals("no-store") || token.equals("private") || token.startsWith("no-cache")) {
+                    return 0;
+                }
+                if (token.startsWith("max-age=")) {
+                    maxAge = seconds(token.substring("max-age=".length()));
+                } else if (token.startsWith("s-maxage=")) {
+                    sharedMaxAge = seconds(token.substring("s-maxage=".length()));
+                }
+            }
+        }
+        long lifetime = sharedMaxAge != -1 ? sharedMaxAge : maxAge;
+        long age = headers.firstValueAsLong("Age").orElse(0);
+        return Math.max(0, lifetime - age);
+    }
+
+    private static long seconds(String value) {
+        try {
+            return Long.parseLong(value.replace("\"", "").trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+}
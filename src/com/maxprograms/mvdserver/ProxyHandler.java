@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsExchange;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class ProxyHandler implements HttpHandler {
+
+    private static Logger logger = System.getLogger(ProxyHandler.class.getName());
+
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-connection",
+            "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade");
+    // headers that HttpClient sets itself and refuses to accept
+    private static final Set<String> RESTRICTED = Set.of("content-length", "date", "expect", "from", "host", "via",
+            "warning");
+
+    private record Route(String prefix, String upstream, boolean stripPrefix, Duration timeout) {
+    }
+
+    private Map<String, Route> routes;
+    private HttpClient client;
+    private ProxyCache cache;
+    private ConcurrentHashMap<String, CompletableFuture<ProxyCache.Entry>> pending;
+    private LongAdder coalesced;
+    private LongAdder errors;
+
+    public ProxyHandler(JSONObject config) {
+        routes = new LinkedHashMap<>();
+        JSONArray array = config.optJSONArray("routes");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject route = array.getJSONObject(i);
+                String upstream = route.getString("upstream");
+                if (upstream.endsWith("/")) {
+                    upstream = upstream.substring(0, upstream.length() - 1);
+                }
+                String prefix = route.getString("prefix");
+                routes.put(prefix, new Route(prefix, upstream, route.optBoolean("stripPrefix", false),
+                        Duration.ofSeconds(route.optLong("timeout", 30))));
+            }
+        }
+        // one client keeps a pool of upstream connections for all routes
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(config.optLong("connectTimeout", 5))).build();
+        cache = new ProxyCache(config);
+        pending = new ConcurrentHashMap<>();
+        coalesced = new LongAdder();
+        errors = new LongAdder();
+    }
+
+    public Set<String> getPrefixes() {
+        return routes.keySet();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Route route = routes.get(exchange.getHttpContext().getPath());
+        try {
+            URI target = target(route, exchange.getRequestURI());
+            String key = cacheKey(exchange, target);
+            if (key == null) {
+                forward(exchange, route, target, null, null);
+                return;
+            }
+            ProxyCache.Entry cached = cache.get(key);
+            if (cached != null) {
+                send(exchange, cached);
+                return;
+            }
+            // concurrent misses wait for the first request instead of going upstream
+            CompletableFuture<ProxyCache.Entry> future = new CompletableFuture<>();
+            CompletableFuture<ProxyCache.Entry> leader = pending.putIfAbsent(key, future);
+            if (leader != null) {
+                coalesced.increment();
+                ProxyCache.Entry entry = await(leader, route.timeout());
+                if (entry != null) {
+                    send(exchange, entry);
+                } else {
+                    forward(exchange, route, target, null, null);
+                }
+                return;
+            }
+            try {
+                forward(exchange, route, target, key, future);
+            } finally {
+                pending.remove(key, future);
+                future.complete(null);
+            }
+        } catch (HttpConnectTimeoutException e) {
+            fail(exchange, 502, e);
+        } catch (HttpTimeoutException e) {
+            fail(exchange, 504, e);
+        } catch (IOException | IllegalArgumentException e) {
+            fail(exchange, 502, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(exchange, 503, e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static URI target(Route route, URI uri) {
+        String path = uri.getRawPath();
+        if (route.stripPrefix()) {
+            path = path.substring(route.prefix().length());
+            if (!path.startsWith("/")) {
+                path = '/' + path;
+            }
+        }
+        String query = uri.getRawQuery();
+        return URI.create(route.upstream() + path + (query != null ? '?' + query : ""));
+    }
+
+    // only anonymous GET requests that accept a stored response use the cache
+    private static String cacheKey(HttpExchange exchange, URI target) {
+        Headers headers = exchange.getRequestHeaders();
+        if (!"GET".equals(exchange.getRequestMethod()) || headers.containsKey("Authorization")
+                || headers.containsKey("Cookie")) {
+            return null;
+        }
+        String cacheControl = headers.getFirst("Cache-Control");
+        if (cacheControl != null && (cacheControl.contains("no-cache") || cacheControl.contains("no-store"))) {
+            return null;
+        }
+        // upstreams may serve different content for each virtual host
+        String host = headers.getFirst("Host");
+        String encoding = headers.getFirst("Accept-Encoding");
+        return (host != null ? host.toLowerCase(Locale.ROOT) : "") + '\n' + target.toString() + '\n'
+                + (encoding != null ? encoding : "");
+    }
+
+    private static ProxyCache.Entry await(CompletableFuture<ProxyCache.Entry> leader, Duration timeout)
+            throws InterruptedException {
+        try {
+            return leader.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    private void forward(HttpExchange exchange, Route route, URI target, String key,
+            CompletableFuture<ProxyCache.Entry> future) throws IOException, InterruptedException {
+        String method = exchange.getRequestMethod();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(target).timeout(route.timeout());
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (HOP_BY_HOP.contains(name) || RESTRICTED.contains(name) || name.startsWith("x-forwarded-")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        String address = exchange.getRemoteAddress().getAddress().getHostAddress();
+        String forwardedFor = exchange.getRequestHeaders().getFirst("X-Forwarded-For");
+        builder.header("X-Forwarded-For", forwardedFor != null ? forwardedFor + ", " + address : address);
+        builder.header("X-Forwarded-Proto", exchange instanceof HttpsExchange ? "https" : "http");
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host != null) {
+            builder.header("X-Forwarded-Host", host);
+        }
+        builder.method(method, publisher(exchange));
+
+        HttpResponse<InputStream> response = client.send(builder.build(), BodyHandlers.ofInputStream());
+        int status = response.statusCode();
+        Map<String, List<String>> upstreamHeaders = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!HOP_BY_HOP.contains(name) && !name.equals("content-length") && !name.equals("date")
+                    && !name.startsWith(":")) {
+                upstreamHeaders.put(header.getKey(), header.getValue());
+            }
+        }
+        long lifetime = key != null ? ProxyCache.lifetime(status, response.headers()) : 0;
+        if (lifetime == 0 && future != null) {
+            future.complete(null);
+        }
+        Headers headers = exchange.getResponseHeaders();
+        for (Map.Entry<String, List<String>> header : upstreamHeaders.entrySet()) {
+            headers.put(header.getKey(), new ArrayList<>(header.getValue()));
+        }
+        if (key != null) {
+            headers.set("X-Cache", "MISS");
+        }
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        try (InputStream in = response.body()) {
+            if ("HEAD".equals(method) || status == 204 || status == 304 || length == 0) {
+                if ("HEAD".equals(method) && length >= 0) {
+                    headers.set("Content-Length", Long.toString(length));
+                }
+                exchange.sendResponseHeaders(status, -1l);
+                return;
+            }
+            byte[] buffer = new byte[16384];
+            ByteArrayOutputStream copy = null;
+            if (lifetime > 0 && cache.accepts(Math.max(0, length))) {
+                // read the whole upstream body before writing, so that waiting requests
+                // are released without depending on the speed of this client
+                long created = System.currentTimeMillis()
+                        - response.headers().firstValueAsLong("Age").orElse(0) * 1000;
+                copy = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    copy.write(buffer, 0, read);
+                    if (!cache.accepts(copy.size())) {
+                        break;
+                    }
+                }
+                if (read == -1) {
+                    ProxyCache.Entry entry = new ProxyCache.Entry(status, upstreamHeaders, copy.toByteArray(),
+                            created, System.currentTimeMillis() + lifetime * 1000);
+                    cache.put(key, entry);
+                    future.complete(entry);
+                    send(exchange, entry.status(), entry.body());
+                    return;
+                }
+                future.complete(null);
+            }
+            exchange.sendResponseHeaders(status, length > 0 ? length : 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (copy != null) {
+                    // the body is larger than a cache entry, send what was already read
+                    copy.writeTo(os);
+                }
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    os.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    private static BodyPublisher publisher(HttpExchange exchange) {
+        Headers headers = exchange.getRequestHeaders();
+        String contentLength = headers.getFirst("Content-Length");
+        if (contentLength != null) {
+            long length = Long.parseLong(contentLength.trim());
+            if (length == 0) {
+                return BodyPublishers.noBody();
+            }
+            return BodyPublishers.fromPublisher(BodyPublishers.ofInputStream(exchange::getRequestBody), length);
+        }
+        if (headers.containsKey("Transfer-Encoding")) {
+            return BodyPublishers.ofInputStream(exchange::getRequestBody);
+        }
+        return BodyPublishers.noBody();
+    }
+
+    private static void send(HttpExchange exchange, ProxyCache.Entry entry) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        for (Map.Entry<String, List<String>> header : entry.headers().entrySet()) {
+            headers.put(header.getKey(), new ArrayList<>(header.getValue()));
+        }
+        headers.set("Age", Long.toString(entry.age()));
+        headers.set("X-Cache", "HIT");
+        byte[] body = entry.body();
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            headers.set("Content-Length", Integer.toString(body.length));
+            exchange.sendResponseHeaders(entry.status(), -1l);
+            return;
+        }
+        send(exchange, entry.status(), body);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body.length == 0) {
+            exchange.sendResponseHeaders(status, -1l);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void fail(HttpExchange exchange, int status, Exception e) throws IOException {
+        errors.increment();
+        logger.log(Level.WARNING, () -> "Proxy error for " + exchange.getRequestURI() + ": " + e.getMessage());
+        // nothing can be reported once the upstream response has started
+        if (exchange.getResponseCode() == -1) {
+            exchange.sendResponseHeaders(status, -1l);
+        }
+    }
+
+    public ProxyCache getCache() {
+        return cache;
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+public class RateLimitFilter extends Filter {
+
+    private RateLimiter limiter;
+
+    public RateLimitFilter(RateLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        String path = exchange.getRequestURI().getRawPath();
+        long wait = limiter.acquire(exchange.getRemoteAddress().getAddress(), path == null ? "/" : path);
+        if (wait > 0) {
+            exchange.getResponseHeaders().add("Retry-After", Long.toString((wait + 999_999_999l) / 1_000_000_000l));
+            exchange.sendResponseHeaders(429, -1l);
+            exchange.close();
+            return;
+        }
+        chain.doFilter(exchange);
+    }
+
+    @Override
+    public String description() {
+        return "Rejects requests with 429 when a client exceeds its rate limit";
+    }
+}
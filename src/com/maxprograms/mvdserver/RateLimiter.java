@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class RateLimiter {
+
+    private static final long NANOS = 1_000_000_000l;
+
+    // generic cell rate algorithm: one timestamp per client instead of a token count
+    private static class Rule {
+        String prefix;
+        long interval;
+        long tolerance;
+        ConcurrentHashMap<InetAddress, AtomicLong> clients = new ConcurrentHashMap<>();
+        // shared by the clients that arrive while the table is full
+        AtomicLong overflow = new AtomicLong(System.nanoTime());
+
+        Rule(String prefix, double rate, int burst) {
+            this.prefix = prefix;
+            interval = rate > 0 ? (long) (NANOS / rate) : 0;
+            tolerance = interval * Math.max(1, burst);
+        }
+    }
+
+    private List<Rule> rules;
+    private Rule defaultRule;
+    private int maxClients;
+    private long idleTimeout;
+    private LongAdder limited;
+    private LongAdder overflow;
+
+    public RateLimiter(JSONObject config) {
+        maxClients = config.optInt("maxClients", 100000);
+        idleTimeout = config.optLong("idleTimeout", 60) * NANOS;
+        double rate = config.optDouble("rate", 50);
+        if (rate > 0) {
+            defaultRule = new Rule("/", rate, config.optInt("burst", 100));
+        }
+        rules = new ArrayList<>();
+        JSONArray array = config.optJSONArray("rules");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject rule = array.getJSONObject(i);
+                // a rate of 0 exempts the prefix from the default limit
+                rules.add(new Rule(rule.getString("prefix"), rule.getDouble("rate"), rule.optInt("burst", 1)));
+            }
+        }
+        // the most specific prefix wins
+        rules.sort(Comparator.comparingInt((Rule rule) -> rule.prefix.length()).reversed());
+        limited = new LongAdder();
+        overflow = new LongAdder();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rate-limiter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleTimeout / NANOS);
+        scheduler.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.SECONDS);
+    }
+
+    // returns 0 when the request is accepted or the number of nanoseconds to wait
+    public long acquire(InetAddress client, String path) {
+        Rule rule = rule(path);
+        if (rule == null || rule.interval == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        InetAddress key = key(client);
+        AtomicLong arrival = rule.clients.get(key);
+        if (arrival == null) {
+            if (rule.clients.size() >= maxClients) {
+                // new clients are limited as one until idle ones are evicted by the scheduler
+                overflow.increment();
+                arrival = rule.overflow;
+            } else {
+                arrival = rule.clients.computeIfAbsent(key, k -> new AtomicLong(now));
+            }
+        }
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + rule.interval;
+            long wait = next - now - rule.tolerance;
+            if (wait > 0) {
+                limited.increment();
+                return wait;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // an IPv6 host usually owns a whole /64, so its addresses share one bucket
+    private static InetAddress key(InetAddress address) {
+        if (!(address instanceof Inet6Address)) {
+            return address;
+        }
+        byte[] bytes = address.getAddress();
+        Arrays.fill(bytes, 8, 16, (byte) 0);
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            return address;
+        }
+    }
+
+    private Rule rule(String path) {
+        for (Rule rule : rules) {
+            if (path.startsWith(rule.prefix)) {
+                return rule;
+            }
+        }
+        return defaultRule;
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        for (Rule rule : rules) {
+            evict(rule, now);
+        }
+        if (defaultRule != null) {
+            evict(defaultRule, now);
+        }
+    }
+
+    // a client whose bucket has been full for idleTimeout is the same as a new one
+    private void evict(Rule rule, long now) {
+        rule.clients.values().removeIf(arrival -> now - arrival.get() > idleTimeout);
+    }
+
+    public long getLimited() {
+        return limited.sum();
+    }
+
+    public long getOverflow() {
+        return overflow.sum();
+    }
+
+    public long getClients() {
+        long result = defaultRule != null ? defaultRule.clients.size() : 0;
+        for (Rule rule : rules) {
+            result += rule.clients.size();
+        }
+        return result;
+    }
+}
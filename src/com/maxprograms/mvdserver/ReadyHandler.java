@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.json.JSONObject;
+
+public class ReadyHandler implements HttpHandler {
+
+    private Warmup warmup;
+
+    public ReadyHandler(Warmup warmup) {
+        this.warmup = warmup;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        JSONObject result = new JSONObject();
+        result.put("ready", warmup.isReady());
+        result.put("files", warmup.getFiles());
+        result.put("bytes", warmup.getBytes());
+        byte[] body = result.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("content-type", "application/json");
+        exchange.getResponseHeaders().add("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(warmup.isReady() ? 200 : 503, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
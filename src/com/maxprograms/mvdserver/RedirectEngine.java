@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class RedirectEngine {
+
+    private static Logger logger = System.getLogger(RedirectEngine.class.getName());
+
+    private static final String WILDCARD = "*";
+
+    public record Redirect(int status, String location) {
+    }
+
+    private record Rule(int status, String location, String[] parts) {
+
+        Redirect apply(List<String> captures) {
+            if (parts.length == 1) {
+                return new Redirect(status, location);
+            }
+            StringBuilder builder = new StringBuilder(parts[0]);
+            for (int i = 1; i < parts.length; i++) {
+                builder.append(i <= captures.size() ? captures.get(i - 1) : "").append(parts[i]);
+            }
+            return new Redirect(status, builder.toString());
+        }
+    }
+
+    private static class Node {
+        Map<String, Node> children = new HashMap<>();
+        Node wildcard;
+        Rule rule;
+    }
+
+    private record Rules(Map<String, Redirect> exact, Node root, boolean hasPatterns) {
+    }
+
+    private Path file;
+    private volatile Rules rules;
+
+    public RedirectEngine(File webDir) {
+        file = new File(webDir, "redirects.json").toPath().toAbsolutePath().normalize();
+        rules = new Rules(Map.of(), new Node(), false);
+        load();
+    }
+
+    // rules are supplied with update()
+    public RedirectEngine() {
+        rules = new Rules(Map.of(), new Node(), false);
+    }
+
+    public Redirect find(String url) {
+        Rules current = rules;
+        Redirect redirect = current.exact().get(url);
+        if (redirect != null || !current.hasPatterns() || url.isEmpty() || url.charAt(0) != '/') {
+            return redirect;
+        }
+        return match(current.root(), url.substring(1).split("/", -1), 0, new ArrayList<>());
+    }
+
+    public int size() {
+        return rules.exact().size();
+    }
+
+    public void changed(Path path) {
+        if (file != null && (path.equals(file) || file.startsWith(path))) {
+            load();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            clear();
+            return;
+        }
+        try {
+            String text = Files.readString(file, StandardCharsets.UTF_8);
+            if (text.isBlank()) {
+                // the file is being rewritten; wait for the next change
+                return;
+            }
+            update(file.toString(), text);
+        } catch (IOException e) {
+            logger.log(Level.ERROR, "Error loading " + file.toString() + ": " + e.getMessage());
+        }
+    }
+
+    public void clear() {
+        if (!rules.exact().isEmpty() || rules.hasPatterns()) {
+            logger.log(Level.INFO, "Redirects removed");
+        }
+        rules = new Rules(Map.of(), new Node(), false);
+    }
+
+    public void update(String source, String text) {
+        try {
+            JSONObject json = new JSONObject(text);
+            Map<String, Redirect> exact = new HashMap<>();
+            Node root = new Node();
+            boolean hasPatterns = false;
+            int count = 0;
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String path = keys.next();
+                Rule rule = parse(path, json.get(path));
+                if (rule == null) {
+                    continue;
+                }
+                if (path.indexOf('*') == -1) {
+                    exact.put(path, new Redirect(rule.status(), rule.location()));
+                } else {
+                    insert(root, path, rule);
+                    hasPatterns = true;
+                }
+                count++;
+            }
+            rules = new Rules(exact, root, hasPatterns);
+            logger.log(Level.INFO, "Loaded " + count + " redirects");
+        } catch (JSONException e) {
+            logger.log(Level.ERROR, "Error loading " + source + ": " + e.getMessage());
+        }
+    }
+
+    private static Rule parse(String source, Object value) {
+        String location;
+        int status = 301;
+        if (value instanceof JSONObject object) {
+            location = object.optString("location", "");
+            status = object.optInt("status", 301);
+        } else {
+            location = value.toString();
+        }
+        if (!source.startsWith("/") || location.isEmpty()) {
+            logger.log(Level.WARNING, () -> "Ignoring redirect " + source);
+            return null;
+        }
+        for (String segment : source.split("/")) {
+            if (segment.indexOf('*') != -1 && !WILDCARD.equals(segment)) {
+                logger.log(Level.WARNING, () -> "Ignoring redirect " + source + ", '*' must be a whole path segment");
+                return null;
+            }
+        }
+        if (status != 301 && status != 302 && status != 303 && status != 307 && status != 308) {
+            logger.log(Level.WARNING, "Invalid status for redirect " + source + ", using 301");
+            status = 301;
+        }
+        return new Rule(status, location, location.split("\\*", -1));
+    }
+
+    private static void insert(Node root, String source, Rule rule) {
+        Node node = root;
+        for (String segment : source.substring(1).split("/", -1)) {
+            if (WILDCARD.equals(segment)) {
+                if (node.wildcard == null) {
+                    node.wildcard = new Node();
+                }
+                node = node.wildcard;
+            } else {
+                node = node.children.computeIfAbsent(segment, k -> new Node());
+            }
+        }
+        node.rule = rule;
+    }
+
+    private static Redirect match(Node node, String[] segments, int i, List<String> captures) {
+        if (i == segments.length) {
+            return node.rule != null ? node.rule.apply(captures) : null;
+        }
+        Node child = node.children.get(segments[i]);
+        if (child != null) {
+            Redirect result = match(child, segments, i + 1, captures);
+            if (result != null) {
+                return result;
+            }
+        }
+        Node wildcard = node.wildcard;
+        if (wildcard != null) {
+            captures.add(segments[i]);
+            Redirect result = match(wildcard, segments, i + 1, captures);
+            if (result != null) {
+                return result;
+            }
+            captures.remove(captures.size() - 1);
+            if (wildcard.rule != null) {
+                // a trailing wildcard captures the rest of the path
+                captures.add(String.join("/", Arrays.asList(segments).subList(i, segments.length)));
+                return wildcard.rule.apply(captures);
+            }
+        }
+        return null;
+    }
+}
@@ -12,33 +12,39 @@
 package com.maxprograms.mvdserver;
 
 import java.io.IOException;
-import java.net.URI;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
 public class RedirectHandler implements HttpHandler {
 
-    private MVDServer parent;
+    private HeaderTemplate responseHeaders;
+    private String locationPrefix;
+    private Map<String, String> hostPrefixes;
 
     public RedirectHandler(MVDServer parent) {
-        this.parent = parent;
+        responseHeaders = parent.getResponseHeaders();
+        locationPrefix = "https://" + parent.getHostName();
+        hostPrefixes = new HashMap<>();
+        for (String host : parent.getVirtualHostNames()) {
+            hostPrefixes.put(host.toLowerCase(Locale.ROOT), "https://" + host);
+        }
     }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        URI uri = exchange.getRequestURI();
-
-        String newLocation = "https://" + parent.getHostName() + uri.toString();
-        exchange.getResponseHeaders().add("X-FRAME-OPTIONS", "sameorigin");
-        exchange.getResponseHeaders().add("X-XSS-Protection", "1; mode=block");
-        exchange.getResponseHeaders().add("X-Content-Type-Options", "nosniff");
-        exchange.getResponseHeaders().add("Strict-Transport-Security", "max-age=31536000; includeSubDomains");
-        exchange.getResponseHeaders().add("X-Permitted-Cross-Domain-Policies", "master-only");
-        exchange.getResponseHeaders().add("Content-Security-Policy", "report-uri https://maxprograms.com");
-        exchange.getResponseHeaders().add("Referrer-Policy", "no-referrer-when-downgrade");
-        exchange.getResponseHeaders().add("Feature-Policy", "microphone 'none'; camera 'none'");
-        exchange.getResponseHeaders().add("Location", newLocation);
+        Headers headers = exchange.getResponseHeaders();
+        responseHeaders.apply(headers);
+        String prefix = locationPrefix;
+        if (!hostPrefixes.isEmpty()) {
+            String host = VirtualHostHandler.hostName(exchange.getRequestHeaders().getFirst("Host"));
+            prefix = hostPrefixes.getOrDefault(host, locationPrefix);
+        }
+        headers.add("Location", prefix.concat(exchange.getRequestURI().toString()));
         exchange.sendResponseHeaders(301, -1);
     }
 
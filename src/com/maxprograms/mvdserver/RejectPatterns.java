@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+
+public class RejectPatterns {
+
+    private Pattern pattern;
+    private LongAdder rejected;
+
+    public RejectPatterns(JSONArray globs) {
+        rejected = new LongAdder();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < globs.length(); i++) {
+            String glob = globs.getString(i).trim();
+            if (glob.isEmpty()) {
+                continue;
+            }
+            if (!builder.isEmpty()) {
+                builder.append('|');
+            }
+            builder.append("(?:");
+            StringBuilder literal = new StringBuilder();
+            for (int j = 0; j < glob.length(); j++) {
+                char c = glob.charAt(j);
+                if (c == '*' || c == '?') {
+                    if (!literal.isEmpty()) {
+                        builder.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    builder.append(c == '*' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (!literal.isEmpty()) {
+                builder.append(Pattern.quote(literal.toString()));
+            }
+            builder.append(')');
+        }
+        if (!builder.isEmpty()) {
+            pattern = Pattern.compile(builder.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        }
+    }
+
+    public boolean matches(String url) {
+        return pattern != null && pattern.matcher(url).matches();
+    }
+
+    public void countRejected() {
+        rejected.increment();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
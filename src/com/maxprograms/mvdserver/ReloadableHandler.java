@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+// HttpContext does not allow replacing its handler, so reloads swap the delegate
+public class ReloadableHandler implements HttpHandler {
+
+    private volatile HttpHandler handler;
+
+    public ReloadableHandler(HttpHandler handler) {
+        this.handler = handler;
+    }
+
+    public HttpHandler get() {
+        return handler;
+    }
+
+    public void set(HttpHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        handler.handle(exchange);
+    }
+}
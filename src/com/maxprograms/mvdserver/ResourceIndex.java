@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.json.JSONObject;
+
+public class ResourceIndex {
+
+    private static Logger logger = System.getLogger(ResourceIndex.class.getName());
+
+    private Path root;
+    private Function<File, Resource> describer;
+    private int maxEntries;
+    private long delay;
+    private volatile Map<String, Resource> entries;
+    private AtomicBoolean pending;
+    private ScheduledExecutorService scheduler;
+    private List<Consumer<Path>> listeners;
+
+    public ResourceIndex(File webDir, JSONObject config, Function<File, Resource> describer) throws IOException {
+        this.root = webDir.toPath().toAbsolutePath().normalize();
+        this.describer = describer;
+        maxEntries = config.optInt("maxEntries", 100000);
+        delay = config.optLong("refreshDelay", 250);
+        pending = new AtomicBoolean();
+        listeners = new CopyOnWriteArrayList<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "index-" + root.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuild();
+    }
+
+    // null when the index is disabled; callers must read it once per lookup
+    public Map<String, Resource> getEntries() {
+        return entries;
+    }
+
+    public int size() {
+        Map<String, Resource> snapshot = entries;
+        return snapshot == null ? 0 : snapshot.size();
+    }
+
+    // called after each rebuild, for caches filled from the previous index
+    public void addListener(Consumer<Path> listener) {
+        listeners.add(listener);
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public void changed(Path path) {
+        if (pending.compareAndSet(false, true)) {
+            scheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refresh() {
+        pending.set(false);
+        try {
+            rebuild();
+        } catch (IOException e) {
+            logger.log(Level.ERROR, "Error indexing " + root.toString(), e);
+        }
+        for (Consumer<Path> listener : listeners) {
+            listener.accept(root);
+        }
+    }
+
+    public synchronized void rebuild() throws IOException {
+        long start = System.nanoTime();
+        Map<String, Resource> map = new HashMap<>();
+        boolean[] overflow = new boolean[1];
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (!attrs.isRegularFile()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (map.size() >= maxEntries) {
+                            overflow[0] = true;
+                            return FileVisitResult.TERMINATE;
+                        }
+                        String url = toUrl(file);
+                        Resource resource = describer.apply(file.toFile());
+                        map.put(url, resource);
+                        if (file.getFileName().toString().equals("index.html")) {
+                            String dir = url.substring(0, url.length() - "index.html".length());
+                            map.put(dir, resource);
+                            if (dir.length() > 1) {
+                                map.put(dir.substring(0, dir.length() - 1), resource);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        logger.log(Level.WARNING, () -> "Unable to index " + file.toString());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        if (overflow[0]) {
+            entries = null;
+            logger.log(Level.WARNING, () -> "More than " + maxEntries + " files in " + root.toString()
+                    + ", resource index disabled");
+            return;
+        }
+        entries = Collections.unmodifiableMap(map);
+        logger.log(Level.INFO, () -> "Indexed " + map.size() + " resources in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    private String toUrl(Path file) {
+        String relative = root.relativize(file).toString();
+        if (File.separatorChar != '/') {
+            relative = relative.replace(File.separatorChar, '/');
+        }
+        return '/' + relative;
+    }
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+public class ServerExecutor implements Executor {
+
+    private static Logger logger = System.getLogger(ServerExecutor.class.getName());
+
+    public static final String POOL = "pool";
+    public static final String VIRTUAL = "virtual";
+
+    private static final ThreadLocal<Boolean> overloaded = new ThreadLocal<>();
+
+    private String mode;
+    private ExecutorService workers;
+    private ExecutorService shedding;
+    private int limit;
+    private int retryAfter;
+    private AtomicInteger inFlight;
+    private AtomicInteger active;
+    private LongAdder rejected;
+
+    public ServerExecutor(JSONObject config) {
+        mode = config.optString("mode", POOL);
+        retryAfter = config.optInt("retryAfter", 1);
+        inFlight = new AtomicInteger();
+        active = new AtomicInteger();
+        rejected = new LongAdder();
+        if (VIRTUAL.equals(mode)) {
+            limit = config.optInt("maxConcurrent", 1000);
+            workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-", 0).factory());
+        } else if (POOL.equals(mode)) {
+            int core = config.optInt("coreThreads", 4);
+            int max = Math.max(core, config.optInt("maxThreads", 8));
+            int queue = Math.max(1, config.optInt("maxQueue", 100));
+            limit = max + queue;
+            workers = new ThreadPoolExecutor(core, max, config.optLong("keepAlive", 30), TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queue));
+        } else {
+            throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        }
+        shedding = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("shed-", 0).factory());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            shed(task);
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                active.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            shed(task);
+        }
+    }
+
+    private void shed(Runnable task) {
+        rejected.increment();
+        shedding.execute(() -> {
+            overloaded.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                overloaded.remove();
+            }
+        });
+    }
+
+    public static boolean isOverloaded() {
+        return overloaded.get() != null;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    // accepted requests, including those still waiting in the queue
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return Math.max(0, inFlight.get() - active.get());
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+        shedding.shutdown();
+        logger.log(Level.INFO, () -> "Executor stopped, " + getRejected() + " requests rejected");
+    }
+}
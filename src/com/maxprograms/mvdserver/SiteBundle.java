@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.json.JSONObject;
+
+public class SiteBundle {
+
+    private static Logger logger = System.getLogger(SiteBundle.class.getName());
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    // data is the raw entry content: a deflate stream for deflated entries
+    public record Entry(String name, ByteBuffer data, long size, int crc, boolean deflated, long lastModified,
+            String etag) {
+
+        public long gzipLength() {
+            return GZIP_HEADER.length + data.limit() + 8l;
+        }
+    }
+
+    private record Archive(long lastModified, long size, Map<String, Entry> entries) {
+    }
+
+    private Path file;
+    private volatile Archive archive;
+    private List<Consumer<Path>> listeners;
+    private ScheduledExecutorService scheduler;
+
+    public SiteBundle(Path file, JSONObject config) throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        listeners = new CopyOnWriteArrayList<>();
+        archive = open();
+        logger.log(Level.INFO, () -> "Loaded " + archive.entries().size() + " entries from " + this.file.toString());
+        long interval = config.optLong("checkInterval", 2000);
+        if (interval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "bundle-" + this.file.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Entry get(String url) {
+        return archive.entries().get(url);
+    }
+
+    public int size() {
+        return archive.entries().size();
+    }
+
+    public void addListener(Consumer<Path> listener) {
+        listeners.add(listener);
+    }
+
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void check() {
+        try {
+            Archive current = archive;
+            if (Files.getLastModifiedTime(file).toMillis() == current.lastModified()
+                    && Files.size(file) == current.size()) {
+                return;
+            }
+            Archive replacement = open();
+            archive = replacement;
+            logger.log(Level.INFO, () -> "Reloaded " + replacement.entries().size() + " entries from "
+                    + file.toString());
+            for (Consumer<Path> listener : listeners) {
+                listener.accept(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            // keep serving the previous archive
+            logger.log(Level.ERROR, "Error loading " + file.toString() + ": " + e.getMessage());
+        }
+    }
+
+    private Archive open() throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive larger than 2 GB");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd(data);
+        int count = Short.toUnsignedInt(data.getShort(end + 10));
+        long directory = Integer.toUnsignedLong(data.getInt(end + 16));
+        if (count == 0xffff || directory == 0xffffffffl) {
+            throw new IOException("ZIP64 archives are not supported");
+        }
+        Map<String, Entry> entries = new HashMap<>();
+        int position = (int) directory;
+        for (int i = 0; i < count; i++) {
+            if (data.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new IOException("Invalid central directory");
+            }
+            int flags = Short.toUnsignedInt(data.getShort(position + 8));
+            int method = Short.toUnsignedInt(data.getShort(position + 10));
+            int time = Short.toUnsignedInt(data.getShort(position + 12));
+            int date = Short.toUnsignedInt(data.getShort(position + 14));
+            int crc = data.getInt(position + 16);
+            long compressed = Integer.toUnsignedLong(data.getInt(position + 20));
+            long size = Integer.toUnsignedLong(data.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(data.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(data.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(data.getShort(position + 32));
+            long local = Integer.toUnsignedLong(data.getInt(position + 42));
+            byte[] bytes = new byte[nameLength];
+            data.get(position + 46, bytes);
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            position += 46 + nameLength + extraLength + commentLength;
+
+            if (name.endsWith("/")) {
+                continue;
+            }
+            if ((flags & 1) != 0 || (method != STORED && method != DEFLATED) || compressed == 0xffffffffl
+                    || size == 0xffffffffl) {
+                logger.log(Level.WARNING, () -> "Unsupported entry " + name);
+                continue;
+            }
+            if (data.getInt((int) local) != LOCAL_SIGNATURE) {
+                throw new IOException("Invalid local header for " + name);
+            }
+            int start = (int) local + 30 + Short.toUnsignedInt(data.getShort((int) local + 26))
+                    + Short.toUnsignedInt(data.getShort((int) local + 28));
+            ByteBuffer content = data.slice(start, (int) compressed).asReadOnlyBuffer();
+            String etag = '"' + Integer.toHexString(crc) + '-' + Long.toHexString(size) + '"';
+            String url = '/' + name;
+            Entry entry = new Entry(url, content, size, crc, method == DEFLATED, dosTime(date, time), etag);
+            entries.put(url, entry);
+            if (name.equals("index.html") || name.endsWith("/index.html")) {
+                String dir = url.substring(0, url.length() - "index.html".length());
+                entries.putIfAbsent(dir, entry);
+                if (dir.length() > 1) {
+                    entries.putIfAbsent(dir.substring(0, dir.length() - 1), entry);
+                }
+            }
+        }
+        return new Archive(lastModified, data.capacity(), Collections.unmodifiableMap(entries));
+    }
+
+    private static int findEnd(ByteBuffer data) throws IOException {
+        int limit = Math.max(0, data.capacity() - 22 - 0xffff);
+        for (int i = data.capacity() - 22; i >= limit; i--) {
+            if (data.getInt(i) == END_SIGNATURE) {
+                return i;
+            }
+        }
+        throw new IOException("Not a ZIP archive");
+    }
+
+    private static long dosTime(int date, int time) {
+        try {
+            LocalDateTime local = LocalDateTime.of(1980 + (date >> 9), (date >> 5) & 0x0f, date & 0x1f, time >> 11,
+                    (time >> 5) & 0x3f, (time & 0x1f) * 2);
+            return local.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    public static byte[] inflate(Entry entry) throws IOException {
+        if (!entry.deflated()) {
+            byte[] result = new byte[(int) entry.size()];
+            entry.data().duplicate().get(result);
+            return result;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(entry.data().duplicate());
+            byte[] result = new byte[(int) entry.size()];
+            int offset = 0;
+            while (offset < result.length && !inflater.finished()) {
+                int read = inflater.inflate(result, offset, result.length - offset);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += read;
+            }
+            if (offset != result.length) {
+                throw new IOException("Truncated entry " + entry.name());
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid entry " + entry.name(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public static byte[] gzipTrailer(Entry entry) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(entry.crc()).putInt((int) entry.size())
+                .array();
+    }
+
+    public static byte[] gzipHeader() {
+        return GZIP_HEADER.clone();
+    }
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+public class SniKeyManager extends X509ExtendedKeyManager {
+
+    private static Logger logger = System.getLogger(SniKeyManager.class.getName());
+
+    public record Store(File file, char[] password) {
+    }
+
+    private record Credential(String alias, PrivateKey key, X509Certificate[] chain, List<String> hostNames) {
+    }
+
+    private record State(Map<String, Credential> credentials, Map<Store, Long> modified) {
+    }
+
+    private List<Store> stores;
+    private volatile State state;
+    private LongAdder fullHandshakes;
+
+    public SniKeyManager(List<Store> stores) throws IOException, GeneralSecurityException {
+        this.stores = stores;
+        fullHandshakes = new LongAdder();
+        state = load();
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.sum();
+    }
+
+    public void reloadIfChanged() {
+        State current = state;
+        boolean changed = false;
+        for (Store store : stores) {
+            Long modified = current.modified().get(store);
+            if (modified == null || modified.longValue() != store.file().lastModified()) {
+                changed = true;
+                break;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        try {
+            State replacement = load();
+            state = replacement;
+            logger.log(Level.INFO, () -> "Reloaded " + replacement.credentials().size() + " certificates");
+        } catch (IOException | GeneralSecurityException e) {
+            // new connections keep using the previous certificates
+            logger.log(Level.ERROR, "Error reloading keystores: " + e.getMessage());
+        }
+    }
+
+    private State load() throws IOException, GeneralSecurityException {
+        Map<String, Credential> credentials = new LinkedHashMap<>();
+        Map<Store, Long> modified = new LinkedHashMap<>();
+        for (Store store : stores) {
+            modified.put(store, store.file().lastModified());
+            KeyStore keyStore = KeyStore.getInstance(store.file(), store.password());
+            Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                String name = aliases.nextElement();
+                if (!keyStore.isKeyEntry(name)) {
+                    continue;
+                }
+                Certificate[] certificates = keyStore.getCertificateChain(name);
+                if (certificates == null || certificates.length == 0
+                        || !(keyStore.getKey(name, store.password()) instanceof PrivateKey key)) {
+                    continue;
+                }
+                X509Certificate[] chain = new X509Certificate[certificates.length];
+                for (int i = 0; i < certificates.length; i++) {
+                    chain[i] = (X509Certificate) certificates[i];
+                }
+                String alias = store.file().getName() + '#' + name;
+                credentials.put(alias, new Credential(alias, key, chain, hostNames(chain[0])));
+            }
+        }
+        if (credentials.isEmpty()) {
+            throw new GeneralSecurityException("No private keys found in keystores");
+        }
+        return new State(Collections.unmodifiableMap(credentials), modified);
+    }
+
+    private static List<String> hostNames(X509Certificate certificate) throws CertificateParsingException {
+        List<String> result = new ArrayList<>();
+        Collection<List<?>> names = certificate.getSubjectAlternativeNames();
+        if (names != null) {
+            for (List<?> name : names) {
+                if (((Integer) name.get(0)).intValue() == 2) {
+                    result.add(name.get(1).toString().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        if (result.isEmpty()) {
+            // RFC 2253 form, with special characters escaped by a backslash
+            String subject = certificate.getSubjectX500Principal().getName();
+            boolean escaped = false;
+            int start = 0;
+            for (int i = 0; i <= subject.length(); i++) {
+                char c = i < subject.length() ? subject.charAt(i) : ',';
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == ',' || c == '+') {
+                    String rdn = subject.substring(start, i).trim();
+                    if (rdn.regionMatches(true, 0, "CN=", 0, 3)) {
+                        result.add(rdn.substring(3).replace("\\", "").toLowerCase(Locale.ROOT));
+                    }
+                    start = i + 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(List<String> hostNames, String host) {
+        for (String name : hostNames) {
+            if (name.equals(host)) {
+                return true;
+            }
+            if (name.startsWith("*.")) {
+                int dot = host.indexOf('.');
+                if (dot > 0 && host.substring(dot).equals(name.substring(1))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private String choose(String keyType, SSLSession session) {
+        String host = null;
+        if (session instanceof ExtendedSSLSession extended) {
+            for (SNIServerName name : extended.getRequestedServerNames()) {
+                if (name instanceof SNIHostName hostName) {
+                    host = hostName.getAsciiName().toLowerCase(Locale.ROOT);
+                }
+            }
+        }
+        Credential fallback = null;
+        for (Credential credential : state.credentials().values()) {
+            if (!credential.key().getAlgorithm().equals(keyType)) {
+                continue;
+            }
+            if (host != null && matches(credential.hostNames(), host)) {
+                fullHandshakes.increment();
+                return credential.alias();
+            }
+            if (fallback == null) {
+                fallback = credential;
+            }
+        }
+        if (fallback != null) {
+            fullHandshakes.increment();
+            return fallback.alias();
+        }
+        return null;
+    }
+
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+        return choose(keyType, engine != null ? engine.getHandshakeSession() : null);
+    }
+
+    @Override
+    public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+        return choose(keyType, socket instanceof SSLSocket ssl ? ssl.getHandshakeSession() : null);
+    }
+
+    @Override
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        List<String> result = new ArrayList<>();
+        for (Credential credential : state.credentials().values()) {
+            if (credential.key().getAlgorithm().equals(keyType)) {
+                result.add(credential.alias());
+            }
+        }
+        return result.isEmpty() ? null : result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias) {
+        Credential credential = state.credentials().get(alias);
+        return credential != null ? credential.chain().clone() : null;
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) {
+        Credential credential = state.credentials().get(alias);
+        return credential != null ? credential.key() : null;
+    }
+
+    @Override
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        return null;
+    }
+
+    @Override
+    public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+        return null;
+    }
+}
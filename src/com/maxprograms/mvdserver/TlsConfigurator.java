@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class TlsConfigurator extends HttpsConfigurator {
+
+    private static final String[] DEFAULT_PROTOCOLS = { "TLSv1.3", "TLSv1.2" };
+
+    private SniKeyManager keyManager;
+    private SSLParameters parameters;
+    private LongAdder connections;
+    private ScheduledExecutorService scheduler;
+
+    private TlsConfigurator(SSLContext context, SniKeyManager keyManager, JSONObject config) {
+        super(context);
+        this.keyManager = keyManager;
+        connections = new LongAdder();
+
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(config.optInt("sessionCacheSize", 20480));
+        sessions.setSessionTimeout(config.optInt("sessionTimeout", 86400));
+
+        String[] protocols = DEFAULT_PROTOCOLS;
+        JSONArray array = config.optJSONArray("protocols");
+        if (array != null) {
+            protocols = new String[array.length()];
+            for (int i = 0; i < array.length(); i++) {
+                protocols[i] = array.getString(i);
+            }
+        }
+        parameters = context.getDefaultSSLParameters();
+        parameters.setProtocols(protocols);
+        parameters.setUseCipherSuitesOrder(true);
+
+        long interval = config.optLong("reloadInterval", 60);
+        if (interval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "keystore-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(keyManager::reloadIfChanged, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public static TlsConfigurator create(List<SniKeyManager.Store> stores, JSONObject config)
+            throws IOException, GeneralSecurityException {
+        SniKeyManager keyManager = new SniKeyManager(stores);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(new KeyManager[] { keyManager }, null, new SecureRandom());
+        return new TlsConfigurator(context, keyManager, config);
+    }
+
+    public static SniKeyManager.Store store(JSONObject config) {
+        return new SniKeyManager.Store(new File(config.getString("file")),
+                config.getString("password").toCharArray());
+    }
+
+    @Override
+    public void configure(HttpsParameters params) {
+        // called once for every new connection
+        connections.increment();
+        params.setSSLParameters(parameters);
+    }
+
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    public long getFullHandshakes() {
+        return keyManager.getFullHandshakes();
+    }
+
+    public double getResumptionRate() {
+        long total = getConnections();
+        return total == 0 ? 0.0 : Math.max(0.0, (double) (total - getFullHandshakes()) / total);
+    }
+
+    public String[] getProtocols() {
+        return parameters.getProtocols();
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class VirtualHostHandler implements HttpHandler {
+
+    private record Site(String name, HttpHandler handler) {
+    }
+
+    private Site defaultSite;
+    private Map<String, Site> sites;
+
+    public VirtualHostHandler(String defaultName, HttpHandler defaultHandler) {
+        defaultSite = new Site(defaultName, defaultHandler);
+        sites = new HashMap<>();
+    }
+
+    public void addSite(String name, Iterable<String> aliases, HttpHandler handler) {
+        Site site = new Site(name, handler);
+        sites.put(name.toLowerCase(Locale.ROOT), site);
+        for (String alias : aliases) {
+            sites.put(alias.toLowerCase(Locale.ROOT), site);
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        site(exchange.getRequestHeaders().getFirst("Host")).handler().handle(exchange);
+    }
+
+    public String siteName(String hostHeader) {
+        return site(hostHeader).name();
+    }
+
+    private Site site(String hostHeader) {
+        String host = hostName(hostHeader);
+        if (host == null) {
+            return defaultSite;
+        }
+        Site site = sites.get(host);
+        return site != null ? site : defaultSite;
+    }
+
+    // host part of a Host header, without port and in lower case
+    public static String hostName(String hostHeader) {
+        if (hostHeader == null || hostHeader.isEmpty()) {
+            return null;
+        }
+        int end = hostHeader.length();
+        if (hostHeader.charAt(0) == '[') {
+            int bracket = hostHeader.indexOf(']');
+            end = bracket == -1 ? end : bracket + 1;
+        } else {
+            int colon = hostHeader.lastIndexOf(':');
+            if (colon != -1) {
+                end = colon;
+            }
+        }
+        if (end > 0 && hostHeader.charAt(end - 1) == '.') {
+            end--;
+        }
+        return hostHeader.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2019-2020 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+package com.maxprograms.mvdserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class Warmup {
+
+    private static Logger logger = System.getLogger(Warmup.class.getName());
+
+    private record Target(FileHandler handler, String url, long count) {
+    }
+
+    private Path file;
+    private long maxBytes;
+    private Supplier<Map<String, FileHandler>> handlers;
+    private volatile boolean ready;
+    private volatile long files;
+    private volatile long bytes;
+
+    public Warmup(JSONObject config, Supplier<Map<String, FileHandler>> handlers) {
+        this.handlers = handlers;
+        file = new File(config.optString("file", "hotset.json")).toPath().toAbsolutePath();
+        maxBytes = config.optLong("maxBytes", 64l * 1024 * 1024);
+        long interval = config.optLong("saveInterval", 300);
+        if (interval > 0) {
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "hotset");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::save, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run() {
+        try {
+            load(handlers.get());
+        } catch (RuntimeException e) {
+            logger.log(Level.ERROR, "Warm-up failed: " + e.getMessage());
+        } finally {
+            // a failed warm-up must not keep the server out of rotation
+            ready = true;
+        }
+    }
+
+    // the most requested paths of all sites go first until the budget is spent
+    public void load(Map<String, FileHandler> sites) {
+        long start = System.nanoTime();
+        JSONObject saved = read();
+        List<Target> targets = new ArrayList<>();
+        for (String name : saved.keySet()) {
+            FileHandler handler = sites.get(name);
+            JSONObject counts = saved.optJSONObject(name);
+            if (handler == null || handler.getHotSet() == null || counts == null) {
+                continue;
+            }
+            try {
+                for (String url : counts.keySet()) {
+                    long count = counts.optLong(url);
+                    handler.getHotSet().seed(url, count);
+                    targets.add(new Target(handler, url, count));
+                }
+            } catch (JSONException e) {
+                logger.log(Level.WARNING, "Invalid hot set entry for " + name + ": " + e.getMessage());
+            }
+        }
+        targets.sort(Comparator.comparingLong(Target::count).reversed());
+        long loaded = 0;
+        long count = 0;
+        for (Target target : targets) {
+            if (loaded >= maxBytes) {
+                break;
+            }
+            try {
+                long size = target.handler().warm(target.url());
+                if (size > 0) {
+                    loaded += size;
+                    count++;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, () -> "Unable to preload " + target.url() + ": " + e.getMessage());
+            }
+        }
+        files = count;
+        bytes = loaded;
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        logger.log(Level.INFO, "Warm-up loaded " + count + " files, " + loaded + " bytes in " + millis + " ms");
+    }
+
+    private JSONObject read() {
+        if (!Files.exists(file)) {
+            return new JSONObject();
+        }
+        try {
+            return new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            logger.log(Level.WARNING, "Unable to read hot set from " + file.toString() + ": " + e.getMessage());
+            return new JSONObject();
+        }
+    }
+
+    public synchronized void save() {
+        save(handlers.get());
+    }
+
+    // errors are logged, an exception would cancel all the following scheduled saves
+    public synchronized void save(Map<String, FileHandler> sites) {
+        try {
+            JSONObject result = new JSONObject();
+            for (Entry<String, FileHandler> entry : sites.entrySet()) {
+                HotSet hotSet = entry.getValue().getHotSet();
+                if (hotSet != null) {
+                    result.put(entry.getKey(), hotSet.toJSON());
+                    hotSet.trim();
+                }
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, result.toString(), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.ERROR, "Unable to save hot set to " + file.toString() + ": " + e.getMessage());
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
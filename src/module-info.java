@@ -14,5 +14,7 @@
     exports com.maxprograms.mvdserver;
 
     requires json;
+    requires jdk.jfr;
+    requires java.net.http;
     requires transitive jdk.httpserver;
 }
\ No newline at end of file